@@ -0,0 +1,36 @@
+package com.drawing.bench;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, adding the GC profiler when no profiler is given,
+ * so every run reports the allocation rate beside the throughput and average time.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class BenchmarkMain
+{
+  public static void main(String[] args) throws Exception
+  {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if (commandLine.shouldHelp())
+    {
+      commandLine.showHelp();
+      return;
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+    if (commandLine.getProfilers().isEmpty())
+      options.addProfiler(GCProfiler.class);
+
+    Runner runner = new Runner(options.build());
+    if (commandLine.shouldList())
+      runner.list();
+    else
+      runner.run();
+  }
+}
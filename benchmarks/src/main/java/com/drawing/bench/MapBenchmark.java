@@ -0,0 +1,61 @@
+package com.drawing.bench;
+import com.drawing.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of reading the edges of a Map's tiles, as the player does on every move.
+ * The Map is generated once per trial, without a display, and every call reads the next tile along its rows.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapBenchmark
+{
+  @Param({"10", "50", "100", "500"})
+  int size;
+
+  @Param({"PATH", "MAZE"})
+  Tileset tileset;
+
+  private Map map;
+  private int row;
+  private int col;
+
+  @Setup(Level.Trial)
+  public void makeMap()
+  {
+    map = new Map(tileset == Tileset.MAZE, size, size);
+    row = 0;
+    col = 0;
+  }
+
+  @Benchmark
+  public int[] getEdgeData()
+  {
+    int[] edges = map.getEdgeData(row, col);
+    if (++col == size)
+    {
+      col = 0;
+      row = row + 1 == size ? 0 : row + 1;
+    }
+    return edges;
+  }
+}
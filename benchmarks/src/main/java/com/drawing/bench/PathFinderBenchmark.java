@@ -0,0 +1,148 @@
+package com.drawing.bench;
+import com.drawing.HierarchicalPathFinder;
+import com.drawing.PathFinder;
+import com.drawing.WaveFunction;
+import com.drawing.Walkability;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of finding paths on a collapsed grid, with a PathFinder and a HierarchicalPathFinder,
+ * and of compiling its Walkability and building its hierarchy.
+ *
+ * The grid is collapsed once per trial. The queries are drawn once too, with a fixed seed, and every call answers the next one:
+ * near queries go to a cell at most 20 rows and columns away, as an actor chasing the player would,
+ * and far queries go anywhere on the grid.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathFinderBenchmark
+{
+  private static final int QUERIES = 1024;
+  private static final int NEAR = 20;
+
+  @Param({"10", "50", "100", "500"})
+  int size;
+
+  @Param({"PATH", "MAZE"})
+  Tileset tileset;
+
+  private int[][] values;
+  private int[][] mapping;
+  private Walkability walkability;
+  private PathFinder finder;
+  private HierarchicalPathFinder hierarchical;
+  private int[] path;
+  private int[] near;
+  private int[] far;
+  private int query;
+
+  @Setup(Level.Trial)
+  public void makeGrid()
+  {
+    WaveFunction wf = new WaveFunction(size, size, tileset.edgeData, tileset.rotationSymmetry, tileset.weights, 1);
+    wf.collapse();
+    int[] grid = wf.getGrid();
+    values = new int[size][size];
+    for (int row = 0; row < size; row++)
+    {
+      System.arraycopy(grid, row * size, values[row], 0, size);
+    }
+    mapping = wf.getMapping();
+    walkability = Walkability.compile(values, mapping, tileset.edgeData);
+    finder = new PathFinder(walkability);
+    hierarchical = new HierarchicalPathFinder(walkability);
+    path = new int[size * size];
+
+    // each query is four ints, the start row and column, then the goal row and column
+    Random random = new Random(1);
+    near = new int[QUERIES * 4];
+    far = new int[QUERIES * 4];
+    for (int q = 0; q < QUERIES * 4; q += 4)
+    {
+      near[q] = random.nextInt(size);
+      near[q + 1] = random.nextInt(size);
+      near[q + 2] = Math.max(0, Math.min(size - 1, near[q] + random.nextInt(2 * NEAR + 1) - NEAR));
+      near[q + 3] = Math.max(0, Math.min(size - 1, near[q + 1] + random.nextInt(2 * NEAR + 1) - NEAR));
+      for (int i = 0; i < 4; i++)
+      {
+        far[q + i] = random.nextInt(size);
+      }
+    }
+    query = 0;
+  }
+
+  /**
+   * Finds the path of the next near query
+   */
+  @Benchmark
+  public int findPathNear()
+  {
+    int q = next();
+    return finder.findPath(near[q], near[q + 1], near[q + 2], near[q + 3], path);
+  }
+
+  /**
+   * Finds the path of the next far query
+   */
+  @Benchmark
+  public int findPathFar()
+  {
+    int q = next();
+    return finder.findPath(far[q], far[q + 1], far[q + 2], far[q + 3], path);
+  }
+
+  /**
+   * Finds the path of the next far query through the hierarchy, refining all of it
+   */
+  @Benchmark
+  public int findPathFarHierarchical()
+  {
+    int q = next();
+    return hierarchical.findPath(far[q], far[q + 1], far[q + 2], far[q + 3], path);
+  }
+
+  /**
+   * Compiles the Walkability of the grid
+   */
+  @Benchmark
+  public Walkability compile()
+  {
+    return Walkability.compile(values, mapping, tileset.edgeData);
+  }
+
+  /**
+   * Builds the hierarchy of the grid, every cluster of it
+   */
+  @Benchmark
+  public HierarchicalPathFinder buildHierarchy()
+  {
+    return new HierarchicalPathFinder(walkability);
+  }
+
+  private int next()
+  {
+    int q = query;
+    query = (query + 4) % (QUERIES * 4);
+    return q;
+  }
+}
@@ -0,0 +1,61 @@
+package com.drawing.bench;
+import com.drawing.State;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of analyzing the adjacency of a tileset's States, pair by pair with State.analyze
+ * and by socket with State.analyzeAll. Each invocation analyzes States it has just made,
+ * as analyze adds to the neighbors a State already has, so making them is measured on its own by expand
+ * and is part of the other two.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateBenchmark
+{
+  @Param({"PATH", "MAZE"})
+  Tileset tileset;
+
+  /**
+   * Makes the States of the tileset, the part of analyze and analyzeAll that is not analyzing
+   */
+  @Benchmark
+  public State[] expand()
+  {
+    return tileset.expand();
+  }
+
+  @Benchmark
+  public State[] analyze()
+  {
+    State[] states = tileset.expand();
+    for (State state : states)
+    {
+      state.analyze(states);
+    }
+    return states;
+  }
+
+  @Benchmark
+  public State[] analyzeAll()
+  {
+    State[] states = tileset.expand();
+    State.analyzeAll(states, null);
+    return states;
+  }
+}
@@ -0,0 +1,50 @@
+package com.drawing.bench;
+import com.drawing.Map;
+import com.drawing.State;
+
+/**
+ * The Tileset enum holds the two tilesets of the game, taken from Map, for the benchmarks to be parameterized over.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public enum Tileset
+{
+  PATH(false),
+  MAZE(true);
+
+  final int[][] edgeData;
+  final int[] rotationSymmetry;
+  final int[] weights;
+
+  Tileset(boolean doMazeSet)
+  {
+    this.edgeData = Map.getTilesetEdgeData(doMazeSet);
+    this.rotationSymmetry = Map.getTilesetRotationData(doMazeSet);
+    this.weights = Map.getTilesetWeights(doMazeSet);
+  }
+
+  /**
+   * Returns a fresh, unanalyzed State for every rotation of every tile, as a WaveFunction expands them
+   * @return the States of the tileset
+   */
+  State[] expand()
+  {
+    int count = 0;
+    for (int rotations : rotationSymmetry)
+      count += rotations;
+
+    State[] states = new State[count];
+    int index = 0;
+    for (int i = 0; i < rotationSymmetry.length; i++)
+    {
+      State first = new State(i, edgeData[i], 0);
+      states[index++] = first;
+      for (int j = 1; j < rotationSymmetry[i]; j++)
+      {
+        states[index++] = first.rotate(j);
+      }
+    }
+    return states;
+  }
+}
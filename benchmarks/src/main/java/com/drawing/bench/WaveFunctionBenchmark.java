@@ -0,0 +1,86 @@
+package com.drawing.bench;
+import com.drawing.WaveFunction;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of collapsing a WaveFunction, as a whole grid and one Superposition at a time.
+ *
+ * The WaveFunction is made once per trial, so the rules are never analyzed inside a measurement,
+ * and regenerated with the same seed whenever nothing is left to collapse, so every collapse of a trial makes the same choices.
+ * The regenerating is done inside the measured methods rather than in a per-invocation setup, whose own overhead
+ * would swamp a single collapseOnce, and is measured on its own by regenerate.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaveFunctionBenchmark
+{
+  @Param({"10", "50", "100", "500"})
+  int size;
+
+  @Param({"PATH", "MAZE"})
+  Tileset tileset;
+
+  @Param({"1", "2", "3"})
+  long seed;
+
+  private WaveFunction wf;
+
+  @Setup(Level.Trial)
+  public void makeWaveFunction()
+  {
+    wf = new WaveFunction(size, size, tileset.edgeData, tileset.rotationSymmetry, tileset.weights, seed);
+  }
+
+  /**
+   * Regenerates the grid, the part of collapse that is not collapsing
+   */
+  @Benchmark
+  public WaveFunction regenerate()
+  {
+    wf.regenerate(seed);
+    return wf;
+  }
+
+  /**
+   * Regenerates the grid and collapses the whole of it
+   */
+  @Benchmark
+  public WaveFunction collapse()
+  {
+    wf.regenerate(seed);
+    wf.collapse();
+    return wf;
+  }
+
+  /**
+   * Collapses a single Superposition and propagates it, regenerating the grid first if nothing is left to collapse.
+   * That happens once every size * size calls at most, so it adds at most regenerate / (size * size) to each
+   */
+  @Benchmark
+  public WaveFunction collapseOnce()
+  {
+    if (wf.isCollapsed())
+      wf.regenerate(seed);
+    wf.collapseOnce();
+    return wf;
+  }
+}
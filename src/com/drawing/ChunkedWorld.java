@@ -0,0 +1,520 @@
+package com.drawing;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The ChunkedWorld class is an unbounded grid of tiles, split into square chunks that are each generated by a WaveFunction.
+ *
+ * A chunk is generated the first time it is needed, with its border cells restricted to the States that fit the
+ * chunks already around it, so the seams between chunks follow the same adjacency rules as the inside of a chunk.
+ * Chunks around the focus are generated ahead of time on a background thread. Once more than maxChunks are held,
+ * the least recently used chunks are dropped, being written to a save directory if one was given, or else kept deflated
+ * in memory, where they add up for as long as the world is explored. A chunk depends on the chunks generated before it, so it is never generated twice, or it would not match them.
+ * A chunk whose borders cannot match its neighbors is generated without them and counted as unfitted, leaving a seam,
+ * and a chunk that cannot be generated at all is marked failed, its cells -1 as in WaveFunction.getGrid.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class ChunkedWorld
+{
+  private static final int GENERATION_ATTEMPTS = 3;
+
+  private int chunkSize;
+  private int[][] edgeData;
+  private int[] rotationSymmetry;
+  private int[] weights;
+  private long seed;
+  private int lookAhead;
+  private int[][] mapping;
+  private Ruleset rules;
+
+  // the generated chunks by their packed chunk coordinates, in least recently used order
+  private final LinkedHashMap<Long, int[]> chunks;
+  private final int maxChunks;
+  private final File saveDirectory;
+
+  // the dropped chunks, deflated, when there is no save directory to write them to
+  private final HashMap<Long, byte[]> packedChunks;
+
+  // chunks are generated one at a time, so a chunk always sees the borders of the chunks generated before it,
+  // and by one WaveFunction, reset for every chunk and every attempt
+  private final Object generationLock = new Object();
+  private WaveFunction generator;
+  private int failedChunks;
+  private int unfittedChunks;
+  private final ExecutorService prefetcher;
+  private volatile int focusChunkRow = Integer.MIN_VALUE;
+  private volatile int focusChunkCol = Integer.MIN_VALUE;
+
+  /**
+   * A ChunkedWorld constructor
+   * @param chunkSize the number of rows and columns of each chunk
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param seed the seed of the world
+   * @param lookAhead the number of chunks around the focus chunk to generate ahead of time
+   * @param maxChunks the number of chunks to hold in memory, at least (2*lookAhead + 1)^2
+   * @param saveDirectory a directory to write dropped chunks to, or null to keep them deflated in memory, without limit
+   */
+  public ChunkedWorld(int chunkSize, int[][] edgeData, int[] rotationSymmetry, int[] weights, long seed,
+                      int lookAhead, int maxChunks, File saveDirectory)
+  {
+    this.chunkSize = chunkSize;
+    this.edgeData = new int[edgeData.length][];
+    for (int i = 0; i < edgeData.length; i++)
+    {
+      this.edgeData[i] = Arrays.copyOf(edgeData[i], edgeData[i].length);
+    }
+    this.rotationSymmetry = Arrays.copyOf(rotationSymmetry, rotationSymmetry.length);
+    this.weights = Arrays.copyOf(weights, weights.length);
+    this.seed = seed;
+    this.lookAhead = lookAhead;
+
+    int around = 2 * lookAhead + 1;
+    this.maxChunks = Math.max(maxChunks, around * around);
+    this.chunks = new LinkedHashMap<Long, int[]>(16, 0.75f, true);
+
+    this.saveDirectory = saveDirectory;
+    this.packedChunks = new HashMap<Long, byte[]>();
+    if (saveDirectory != null)
+    {
+      saveDirectory.mkdirs();
+    }
+
+    // a 1x1 WaveFunction gives the States and mapping every chunk shares
+    WaveFunction template = new WaveFunction(1, 1, this.edgeData, this.rotationSymmetry, this.weights);
+    this.mapping = template.getMapping();
+    this.rules = template.getRules();
+
+    this.prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+      public Thread newThread(Runnable runnable)
+      {
+        Thread thread = new Thread(runnable, "ChunkedWorld prefetch");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Returns the number of rows and columns of each chunk
+   * @return the chunk size
+   */
+  public int getChunkSize()
+  {
+    return chunkSize;
+  }
+
+  /**
+   * Returns the mapping of State indices to their original reference value and the number of rotations
+   * @return an integer array of 2-tuples, as WaveFunction.getMapping
+   */
+  public int[][] getMapping()
+  {
+    return mapping;
+  }
+
+  /**
+   * Returns the number of chunks held in memory
+   * @return the number of chunks
+   */
+  public int getLoadedChunks()
+  {
+    synchronized (chunks)
+    {
+      return chunks.size();
+    }
+  }
+
+  /**
+   * Returns the number of chunks that could not be generated, even without fitting their neighbors
+   * @return the number of failed chunks
+   */
+  public int getFailedChunks()
+  {
+    synchronized (generationLock)
+    {
+      return failedChunks;
+    }
+  }
+
+  /**
+   * Returns the number of chunks that could not match their neighbors, and were generated without them
+   * @return the number of unfitted chunks, counting the failed chunks too
+   */
+  public int getUnfittedChunks()
+  {
+    synchronized (generationLock)
+    {
+      return unfittedChunks;
+    }
+  }
+
+  /**
+   * Returns the State index of a tile, generating its chunk if needed
+   * @param row the row of the tile, which can be any integer
+   * @param col the column of the tile, which can be any integer
+   * @return the State index of the tile, or -1 if its chunk failed
+   */
+  public int getValue(int row, int col)
+  {
+    int chunkRow = Math.floorDiv(row, chunkSize);
+    int chunkCol = Math.floorDiv(col, chunkSize);
+    int[] chunk = getChunk(chunkRow, chunkCol);
+    return chunk[Math.floorMod(row, chunkSize) * chunkSize + Math.floorMod(col, chunkSize)];
+  }
+
+  /**
+   * Returns the State indices of a chunk, row by row, generating it if needed
+   * @param chunkRow the row of the chunk
+   * @param chunkCol the column of the chunk
+   * @return an array of chunkSize*chunkSize State indices, by reference, all -1 if the chunk failed
+   */
+  public int[] getChunk(int chunkRow, int chunkCol)
+  {
+    int[] chunk = peekChunk(chunkRow, chunkCol);
+    if (chunk != null)
+    {
+      return chunk;
+    }
+
+    synchronized (generationLock)
+    {
+      // another thread may have generated or reloaded it while this one waited
+      chunk = findChunk(chunkRow, chunkCol);
+      if (chunk == null)
+      {
+        chunk = generateChunk(chunkRow, chunkCol);
+        storeChunk(chunkRow, chunkCol, chunk);
+      }
+      return chunk;
+    }
+  }
+
+  /**
+   * Moves the focus of the world to a tile. The chunks within lookAhead of its chunk are generated on the background thread
+   * @param row the row of the focused tile
+   * @param col the column of the focused tile
+   */
+  public void setFocus(int row, int col)
+  {
+    final int chunkRow = Math.floorDiv(row, chunkSize);
+    final int chunkCol = Math.floorDiv(col, chunkSize);
+    if (chunkRow == focusChunkRow && chunkCol == focusChunkCol)
+    {
+      return;
+    }
+    focusChunkRow = chunkRow;
+    focusChunkCol = chunkCol;
+
+    prefetcher.execute(new Runnable()
+    {
+      public void run()
+      {
+        // nearest chunks first, giving up if the focus has moved on since
+        for (int ring = 0; ring <= lookAhead; ring++)
+        {
+          for (int r = chunkRow - ring; r <= chunkRow + ring; r++)
+          {
+            for (int c = chunkCol - ring; c <= chunkCol + ring; c++)
+            {
+              if (focusChunkRow != chunkRow || focusChunkCol != chunkCol)
+                return;
+              if (Math.max(Math.abs(r - chunkRow), Math.abs(c - chunkCol)) == ring)
+                getChunk(r, c);
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops the background thread, waiting up to a second for the chunk it is generating, so nothing is written
+   * to the save directory afterwards unless a chunk is asked for. Chunks are still generated on demand
+   */
+  public void shutdown()
+  {
+    prefetcher.shutdownNow();
+    try
+    {
+      prefetcher.awaitTermination(1, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static long key(int chunkRow, int chunkCol)
+  {
+    return ((long) chunkRow << 32) | (chunkCol & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns a chunk held in memory, without generating or reloading it
+   */
+  private int[] peekChunk(int chunkRow, int chunkCol)
+  {
+    synchronized (chunks)
+    {
+      return chunks.get(key(chunkRow, chunkCol));
+    }
+  }
+
+  /**
+   * Returns a chunk from memory or from where it was dropped to, or null if it was never generated
+   */
+  private int[] findChunk(int chunkRow, int chunkCol)
+  {
+    int[] chunk = peekChunk(chunkRow, chunkCol);
+    if (chunk == null)
+    {
+      chunk = saveDirectory != null ? readChunk(chunkRow, chunkCol) : unpackChunk(chunkRow, chunkCol);
+      if (chunk != null)
+      {
+        storeChunk(chunkRow, chunkCol, chunk);
+      }
+    }
+    return chunk;
+  }
+
+  /**
+   * Holds a chunk in memory, dropping the least recently used chunks past maxChunks
+   */
+  private void storeChunk(int chunkRow, int chunkCol, int[] chunk)
+  {
+    synchronized (chunks)
+    {
+      chunks.put(key(chunkRow, chunkCol), chunk);
+
+      Iterator<java.util.Map.Entry<Long, int[]>> oldest = chunks.entrySet().iterator();
+      while (chunks.size() > maxChunks && oldest.hasNext())
+      {
+        java.util.Map.Entry<Long, int[]> entry = oldest.next();
+        long dropped = entry.getKey();
+        if (saveDirectory != null)
+        {
+          writeChunk((int) (dropped >> 32), (int) dropped, entry.getValue());
+        }
+        else
+        {
+          packChunk(dropped, entry.getValue());
+        }
+        oldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Generates a chunk whose border cells fit the chunks already generated around it
+   */
+  private int[] generateChunk(int chunkRow, int chunkCol)
+  {
+    int[] above = findChunk(chunkRow - 1, chunkCol);
+    int[] right = findChunk(chunkRow, chunkCol + 1);
+    int[] below = findChunk(chunkRow + 1, chunkCol);
+    int[] left = findChunk(chunkRow, chunkCol - 1);
+    long chunkSeed = seed ^ (key(chunkRow, chunkCol) * 0x9E3779B97F4A7C15L);
+
+    for (int attempt = 0; attempt <= GENERATION_ATTEMPTS; attempt++)
+    {
+      generator = WaveFunction.reuse(generator, chunkSize, chunkSize, edgeData, rotationSymmetry, weights, chunkSeed + attempt);
+      WaveFunction wf = generator;
+
+      // the last attempt drops the borders, a visible seam being better than no chunk at all
+      boolean fits = true;
+      if (attempt < GENERATION_ATTEMPTS)
+      {
+        int last = chunkSize - 1;
+        for (int i = 0; i < chunkSize && fits; i++)
+        {
+          if (above != null)
+            fits &= wf.restrict(i, rules.getNeighbors(Ruleset.DOWN, above[last * chunkSize + i]));
+          if (below != null)
+            fits &= wf.restrict(last * chunkSize + i, rules.getNeighbors(Ruleset.UP, below[i]));
+          if (left != null)
+            fits &= wf.restrict(i * chunkSize, rules.getNeighbors(Ruleset.RIGHT, left[i * chunkSize + last]));
+          if (right != null)
+            fits &= wf.restrict(i * chunkSize + last, rules.getNeighbors(Ruleset.LEFT, right[i * chunkSize]));
+        }
+        // every bordered attempt restricts the same cells the same way, so go straight to the last one
+        if (!fits)
+        {
+          attempt = GENERATION_ATTEMPTS - 1;
+          continue;
+        }
+      }
+      else
+      {
+        unfittedChunks++;
+      }
+
+      wf.collapse();
+      if (!wf.isFailed())
+      {
+        int[] chunk = new int[chunkSize * chunkSize];
+        wf.getGridView().get(chunk);
+        return chunk;
+      }
+    }
+
+    // even the unrestricted grid failed
+    failedChunks++;
+    int[] chunk = new int[chunkSize * chunkSize];
+    Arrays.fill(chunk, -1);
+    return chunk;
+  }
+
+  private void packChunk(long key, int[] chunk)
+  {
+    try
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+      try
+      {
+        writeValues(out, chunk);
+      }
+      finally
+      {
+        out.close();
+      }
+      synchronized (packedChunks)
+      {
+        packedChunks.put(key, bytes.toByteArray());
+      }
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+    }
+  }
+
+  private int[] unpackChunk(int chunkRow, int chunkCol)
+  {
+    byte[] packed;
+    synchronized (packedChunks)
+    {
+      packed = packedChunks.remove(key(chunkRow, chunkCol));
+    }
+    if (packed == null)
+    {
+      return null;
+    }
+
+    try
+    {
+      DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(packed)));
+      try
+      {
+        return readValues(in);
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private File chunkFile(int chunkRow, int chunkCol)
+  {
+    return new File(saveDirectory, "chunk_" + chunkRow + "_" + chunkCol + ".bin");
+  }
+
+  private void writeChunk(int chunkRow, int chunkCol, int[] chunk)
+  {
+    try
+    {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(chunkFile(chunkRow, chunkCol))));
+      try
+      {
+        writeValues(out, chunk);
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+    }
+  }
+
+  private int[] readChunk(int chunkRow, int chunkCol)
+  {
+    File file = chunkFile(chunkRow, chunkCol);
+    if (!file.exists())
+    {
+      return null;
+    }
+
+    try
+    {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try
+      {
+        return readValues(in);
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private static void writeValues(DataOutputStream out, int[] chunk) throws IOException
+  {
+    out.writeInt(chunk.length);
+    for (int value : chunk)
+    {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readValues(DataInputStream in) throws IOException
+  {
+    int[] chunk = new int[in.readInt()];
+    for (int i = 0; i < chunk.length; i++)
+    {
+      chunk[i] = in.readInt();
+    }
+    return chunk;
+  }
+}
@@ -0,0 +1,735 @@
+package com.drawing;
+import java.util.Arrays;
+
+/**
+ * The Connectivity class keeps track of which cells of a grid can reach each other as it collapses, so a WaveFunction
+ * finds out that its grid cannot be connected as soon as that is decided, rather than by searching the grid once it is collapsed.
+ *
+ * A wall is an edge with the 2 bit set, as the PlayerCharacter moves. The edge between two neighboring cells is decided
+ * as a wall once every option left to either of them has a wall there, and as open once one of them is collapsed
+ * without a wall there and the other has no wall there whatever it becomes.
+ * Cells with an open edge between them are joined, even if one is not collapsed yet, in a union-find
+ * whose groups count the edges of their cells that are not decided yet. A group with none left can never grow.
+ * A cell with a wall on every side is solid and in no area; every other cell is open,
+ * and the grid is connected if all of its open cells are in one group.
+ * So once an open group can never grow, any other open group means the grid cannot be connected,
+ * and so does any cell outside of it that can still open. Each group counts its cells that can still open, so that is
+ * known from the groups the latest change touched, without looking at the rest of the grid. Without that, a small area closing off early would leave
+ * every other cell to become solid, a grid that is connected but has nothing in it.
+ *
+ * A group only runs out of undecided edges once all of its cells are collapsed, which for a large area closed off by walls
+ * is long after its walls were. So each new wall also searches the few cells around it that are not walled off,
+ * to find a small area closed off as soon as its last wall is decided.
+ * Both only find an area once it is closed off, so the WaveFunction also asks wouldClose before it chooses a State,
+ * and passes over the States that would close an area off while it has others.
+ *
+ * The WaveFunction tells it of every option removed and restored, and restores them in the reverse order they were removed,
+ * as backtracking does. So the union-find is kept without path compression, and every change is logged to be undone.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+class Connectivity
+{
+  // the most cells searched around a new wall for an area it closes off
+  private static final int SEARCH_LIMIT = 256;
+
+  // the kinds of changes in the log
+  private static final int OPENED = 0;
+  private static final int WALLED = 1;
+  private static final int JOINED = 2;
+  private static final int COLLAPSED = 3;
+  private static final int SHUT = 4;
+
+  private int width;
+  private int height;
+  private Superposition[] grid;
+  private int[] stateSides;       // the sides of each State without a wall, as bits
+  private long[][] openStates;    // for each side, the bitset of the States without a wall on that side
+  private long[] solidStates;     // the bitset of the States with a wall on every side
+
+  private int[] openOptions;  // for each cell and side, cell * 4 + side, the number of its options without a wall on that side
+  private int[] parent;       // the parent of each cell in the union-find, the cell itself for the root of a group
+  private int[] size;         // the number of cells in the group of each root
+  private int[] undecided;    // the number of undecided edges of the cells in the group of each root, counted at both ends
+  private int[] open;         // the sides of each collapsed cell without a wall, as bits, or -1 if the cell is not collapsed
+  private int[] decided;      // the sides of each cell whose edge is decided, as bits
+  private int[] walls;        // the sides of each cell whose edge is decided as a wall, as bits
+  private int[] openable;     // the number of cells in the group of each root that are not collapsed and can still open
+
+  // the number of open groups, of open groups that can never grow, of open collapsed cells,
+  // and of groups that can still grow with a cell in them that can still open
+  private int openGroups;
+  private int closedGroups;
+  private int openCells;
+  private int openableGroups;
+
+  // every change, in order, as what changed * 8 + its kind: for an edge, cell * 4 + direction, for a join,
+  // the old root of the group joined to another, and for a collapse or a cell that can no longer open, the cell.
+  // Each edge is decided once, there is one join less than there are cells, and each cell collapses and shuts once
+  private int[] log;
+  private int logCount;
+
+  // every wall found and every collapse, in order: the log position and the counts before it.
+  // Each side of a cell runs out of options without a wall once, and each cell collapses once
+  private int[] eventLog;
+  private int[] eventOpenGroups;
+  private int[] eventClosedGroups;
+  private int[] eventOpenCells;
+  private int[] eventOpenableGroups;
+  private int eventCount;
+
+  // the roots of the groups a change touches
+  private int[] touched = new int[5];
+
+  // the roots of the groups on each side of the cell being tried in wouldClose, or -1 where the edge is decided
+  private int[] nearRoots = new int[4];
+
+  // the cells of a search around a wall, marked in seen with the number of the search
+  private int[] queue = new int[SEARCH_LIMIT];
+  private int[] seen;
+  private int search;
+
+  // once the grid is found unconnected, until that is forgotten, the search that found the area closed off,
+  // or else the root of the group that cannot reach the others, for the WaveFunction to go back to a decision around it
+  private boolean closedOff;
+  private int closedSearch;
+  private int closedRoot;
+
+  /**
+   * A Connectivity constructor. Call track before telling it of any option removed
+   * @param width the width of the grid
+   * @param height the height of the grid
+   * @param states the States the cells can become
+   * @param grid the options of the cells
+   */
+  Connectivity(int width, int height, State[] states, Superposition[] grid)
+  {
+    this.width = width;
+    this.height = height;
+    this.grid = grid;
+    stateSides = new int[states.length];
+    openStates = new long[4][Superposition.wordsFor(states.length)];
+    solidStates = new long[Superposition.wordsFor(states.length)];
+    for (int s = 0; s < states.length; s++)
+    {
+      for (int direction = 0; direction < 4; direction++)
+      {
+        if ((states[s].getEdge(direction)&2) == 0)
+        {
+          stateSides[s] |= 1 << direction;
+          openStates[direction][s >>> 6] |= 1L << s;
+        }
+      }
+      if (stateSides[s] == 0)
+        solidStates[s >>> 6] |= 1L << s;
+    }
+
+    int cells = width * height;
+    openOptions = new int[cells * 4];
+    parent = new int[cells];
+    size = new int[cells];
+    undecided = new int[cells];
+    open = new int[cells];
+    decided = new int[cells];
+    walls = new int[cells];
+    openable = new int[cells];
+    log = new int[cells * 5];
+    eventLog = new int[cells * 5];
+    eventOpenGroups = new int[cells * 5];
+    eventClosedGroups = new int[cells * 5];
+    eventOpenCells = new int[cells * 5];
+    eventOpenableGroups = new int[cells * 5];
+    seen = new int[cells];
+  }
+
+  /**
+   * Starts keeping track over, from the options the cells have now
+   * @return false if the grid can already no longer be connected
+   */
+  boolean track()
+  {
+    for (int cell = 0; cell < parent.length; cell++)
+    {
+      parent[cell] = cell;
+      size[cell] = 1;
+      open[cell] = -1;
+      decided[cell] = 0;
+      walls[cell] = 0;
+      undecided[cell] = 0;
+      for (int direction = 0; direction < 4; direction++)
+      {
+        if (neighbor(cell, direction) >= 0)
+          undecided[cell]++;
+      }
+    }
+    openGroups = 0;
+    closedGroups = 0;
+    openCells = 0;
+    openableGroups = 0;
+    logCount = 0;
+    eventCount = 0;
+    closedOff = false;
+
+    // every cell is counted with the options it has now, before any of them is walled off or collapsed
+    for (int cell = 0; cell < parent.length; cell++)
+    {
+      Superposition options = grid[cell];
+      for (int direction = 0; direction < 4; direction++)
+      {
+        int count = 0;
+        for (int option = options.nextOption(0); option >= 0; option = options.nextOption(option + 1))
+        {
+          if ((stateSides[option] & (1 << direction)) != 0)
+            count++;
+        }
+        openOptions[cell * 4 + direction] = count;
+      }
+      openable[cell] = hasOpenableSide(cell) ? 1 : 0;
+      if (openable[cell] > 0 && undecided[cell] > 0)
+        openableGroups++;
+    }
+
+    // the options already removed are counted as if they were removed one at a time
+    boolean connectable = true;
+    for (int cell = 0; cell < parent.length; cell++)
+    {
+      for (int direction = 0; direction < 4; direction++)
+      {
+        if (openOptions[cell * 4 + direction] == 0 && !wall(cell, direction, false))
+          connectable = false;
+      }
+      if (grid[cell].size() == 1 && !collapse(cell, grid[cell].nextOption(0)))
+        connectable = false;
+    }
+    return connectable;
+  }
+
+  /**
+   * Records an option removed from a cell, after it was removed
+   * @param cell the grid index of the cell
+   * @param state the State index removed
+   * @return false if the grid can no longer be connected
+   */
+  boolean remove(int cell, int state)
+  {
+    boolean connectable = true;
+    int sides = stateSides[state];
+    for (int direction = 0; direction < 4; direction++)
+    {
+      if ((sides & (1 << direction)) != 0 && --openOptions[cell * 4 + direction] == 0 && !wall(cell, direction, true))
+        connectable = false;
+    }
+    if (grid[cell].size() == 1 && !collapse(cell, grid[cell].nextOption(0)))
+      connectable = false;
+    return connectable;
+  }
+
+  /**
+   * Records an option restored to a cell, after it was restored. Options have to be restored in the reverse order
+   * they were removed in
+   * @param cell the grid index of the cell
+   * @param state the State index restored
+   */
+  void restore(int cell, int state)
+  {
+    if (grid[cell].size() == 2)
+      undo();
+
+    int sides = stateSides[state];
+    for (int direction = 3; direction >= 0; direction--)
+    {
+      if ((sides & (1 << direction)) != 0 && openOptions[cell * 4 + direction]++ == 0)
+        undo();
+    }
+  }
+
+  /**
+   * Decides the edge on a side of a cell as a wall, once none of its options is without a wall there
+   * @param emptied true if the last option without a wall there was just removed, so the cell may no longer open
+   * @return false if the grid can no longer be connected
+   */
+  private boolean wall(int cell, int direction, boolean emptied)
+  {
+    int count = begin(cell);
+    int other = neighbor(cell, direction);
+    if (emptied && other >= 0 && open[cell] < 0 && !hasOpenableSide(cell))
+    {
+      shut(cell);
+    }
+    boolean walled = other >= 0 && (decided[cell] & (1 << direction)) == 0;
+    if (walled)
+    {
+      decide(cell, direction, WALLED);
+    }
+    return end(cell, count) && (!walled || (!isClosedOff(cell) && !isClosedOff(other)));
+  }
+
+  /**
+   * Records a cell collapsing to a State, joining it to the cells it is sure to open into
+   * @return false if the grid can no longer be connected
+   */
+  private boolean collapse(int cell, int state)
+  {
+    int count = begin(cell);
+    int sides = stateSides[state];
+    boolean couldOpen = hasOpenableSide(cell);
+    open[cell] = sides;
+    if (sides != 0)
+      openCells++;
+    log[logCount++] = cell * 8 + COLLAPSED;
+    if (couldOpen)
+    {
+      shut(cell);
+    }
+
+    for (int direction = 0; direction < 4; direction++)
+    {
+      int other = neighbor(cell, direction);
+      if (other < 0 || (decided[cell] & (1 << direction)) != 0 || (sides & (1 << direction)) == 0)
+        continue;
+
+      // a neighbor with a wall there would have decided the edge, unless it still has options without one
+      if (open[other] >= 0 || isOpen(other, Ruleset.opposite(direction)))
+      {
+        decide(cell, direction, OPENED);
+        join(cell, other);
+      }
+    }
+    return end(cell, count);
+  }
+
+  /**
+   * Starts a change around a cell, keeping what it has to be undone to, and taking the groups it touches off the counts
+   * @return the number of groups touched
+   */
+  private int begin(int cell)
+  {
+    eventLog[eventCount] = logCount;
+    eventOpenGroups[eventCount] = openGroups;
+    eventClosedGroups[eventCount] = closedGroups;
+    eventOpenCells[eventCount] = openCells;
+    eventOpenableGroups[eventCount] = openableGroups;
+    eventCount++;
+
+    int count = touch(cell);
+    for (int i = 0; i < count; i++)
+    {
+      count(touched[i], -1);
+    }
+    return count;
+  }
+
+  /**
+   * Ends a change around a cell, counting the groups it touched again
+   * @return false if an open group can never grow while there are others
+   */
+  private boolean end(int cell, int count)
+  {
+    count = touch(cell);
+    for (int i = 0; i < count; i++)
+    {
+      count(touched[i], 1);
+    }
+    if (closedGroups > 0 && (openGroups > 1 || openableGroups > 0))
+    {
+      if (!closedOff)
+      {
+        closedOff = true;
+        closedSearch = 0;
+        closedRoot = -1;
+        for (int i = 0; i < count; i++)
+        {
+          int root = touched[i];
+          if ((size[root] > 1 || open[root] > 0) && (closedRoot < 0 || undecided[root] == 0))
+            closedRoot = root;
+        }
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Determines if a cell that is not collapsed still has options without a wall on a side with a neighbor
+   */
+  private boolean hasOpenableSide(int cell)
+  {
+    for (int direction = 0; direction < 4; direction++)
+    {
+      if (openOptions[cell * 4 + direction] > 0 && neighbor(cell, direction) >= 0)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Takes a cell that can no longer open off the count of its group
+   */
+  private void shut(int cell)
+  {
+    openable[find(cell)]--;
+    log[logCount++] = cell * 8 + SHUT;
+  }
+
+  /**
+   * Undoes the latest wall found or collapse
+   */
+  private void undo()
+  {
+    eventCount--;
+    while (logCount > eventLog[eventCount])
+    {
+      int entry = log[--logCount];
+      int kind = entry & 7;
+      int what = entry >> 3;
+      if (kind == JOINED)
+      {
+        int root = parent[what];
+        size[root] -= size[what];
+        undecided[root] -= undecided[what];
+        openable[root] -= openable[what];
+        parent[what] = what;
+      }
+      else if (kind == COLLAPSED)
+      {
+        open[what] = -1;
+      }
+      else if (kind == SHUT)
+      {
+        openable[find(what)]++;
+      }
+      else
+      {
+        int from = what >> 2;
+        int direction = what & 3;
+        int other = neighbor(from, direction);
+        int facing = Ruleset.opposite(direction);
+        decided[from] &= ~(1 << direction);
+        decided[other] &= ~(1 << facing);
+        walls[from] &= ~(1 << direction);
+        walls[other] &= ~(1 << facing);
+        undecided[find(from)]++;
+        undecided[find(other)]++;
+      }
+    }
+    openGroups = eventOpenGroups[eventCount];
+    closedGroups = eventClosedGroups[eventCount];
+    openCells = eventOpenCells[eventCount];
+    openableGroups = eventOpenableGroups[eventCount];
+  }
+
+  /**
+   * Decides the edge on one side of a cell, which is also the edge on the facing side of its neighbor
+   */
+  private void decide(int cell, int direction, int kind)
+  {
+    int other = neighbor(cell, direction);
+    int facing = Ruleset.opposite(direction);
+    decided[cell] |= 1 << direction;
+    decided[other] |= 1 << facing;
+    if (kind == WALLED)
+    {
+      walls[cell] |= 1 << direction;
+      walls[other] |= 1 << facing;
+    }
+    undecided[find(cell)]--;
+    undecided[find(other)]--;
+    log[logCount++] = (cell * 4 + direction) * 8 + kind;
+  }
+
+  /**
+   * Joins the groups of two cells, the smaller under the larger, so no cell is ever more than log n steps from its root
+   */
+  private void join(int a, int b)
+  {
+    int rootA = find(a);
+    int rootB = find(b);
+    if (rootA == rootB)
+    {
+      return;
+    }
+    if (size[rootA] < size[rootB])
+    {
+      int swap = rootA;
+      rootA = rootB;
+      rootB = swap;
+    }
+    parent[rootB] = rootA;
+    size[rootA] += size[rootB];
+    undecided[rootA] += undecided[rootB];
+    openable[rootA] += openable[rootB];
+    log[logCount++] = rootB * 8 + JOINED;
+  }
+
+  private int find(int cell)
+  {
+    while (parent[cell] != cell)
+    {
+      cell = parent[cell];
+    }
+    return cell;
+  }
+
+  /**
+   * Determines if collapsing a cell to a State would leave the open group it ends up in without an undecided edge,
+   * so the group could never grow. The WaveFunction avoids such States while it has others,
+   * so that areas are rarely closed off to begin with
+   * @param cell the grid index of the cell, not collapsed yet
+   * @param state the State index it would collapse to
+   * @return true if the group would be closed
+   */
+  boolean wouldClose(int cell, int state)
+  {
+    int root = find(cell);
+    int sides = stateSides[state];
+    int joined = 0;
+    for (int direction = 0; direction < 4; direction++)
+    {
+      int other = neighbor(cell, direction);
+      nearRoots[direction] = other < 0 || (decided[cell] & (1 << direction)) != 0 ? -1 : find(other);
+      if (nearRoots[direction] >= 0 && (sides & (1 << direction)) != 0
+          && (open[other] >= 0 || isOpen(other, Ruleset.opposite(direction))))
+        joined |= 1 << direction;
+    }
+
+    // the group of the cell takes in the groups it opens into, each once
+    int remaining = undecided[root];
+    for (int direction = 0; direction < 4; direction++)
+    {
+      if ((joined & (1 << direction)) != 0 && !isTaken(nearRoots[direction], root, joined, direction))
+        remaining += undecided[nearRoots[direction]];
+    }
+
+    // then every edge of the cell is decided, but for those open towards a cell that may still open back
+    for (int direction = 0; direction < 4; direction++)
+    {
+      int otherRoot = nearRoots[direction];
+      if (otherRoot < 0 || ((sides & (1 << direction)) != 0 && (joined & (1 << direction)) == 0))
+        continue;
+
+      remaining--;
+      if (isTaken(otherRoot, root, joined, 4))
+      {
+        remaining--;
+      }
+      else if ((size[otherRoot] > 1 || open[otherRoot] > 0) && undecided[otherRoot] == walledEdges(otherRoot, sides))
+      {
+        // walls on every edge the neighbor's open group had left
+        return true;
+      }
+    }
+    return remaining == 0 && (size[root] > 1 || sides != 0);
+  }
+
+  /**
+   * Determines if a group is the group of the cell being tried in wouldClose, or is taken in by it on a side before a limit
+   */
+  private boolean isTaken(int otherRoot, int root, int joined, int limit)
+  {
+    if (otherRoot == root)
+    {
+      return true;
+    }
+    for (int direction = 0; direction < limit; direction++)
+    {
+      if ((joined & (1 << direction)) != 0 && nearRoots[direction] == otherRoot)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of edges between the cell being tried in wouldClose and another group that its State walls off
+   */
+  private int walledEdges(int otherRoot, int sides)
+  {
+    int count = 0;
+    for (int direction = 0; direction < 4; direction++)
+    {
+      if (nearRoots[direction] == otherRoot && (sides & (1 << direction)) == 0)
+        count++;
+    }
+    return count;
+  }
+
+  /**
+   * Determines if none of the options left to a cell has a wall on one side
+   */
+  private boolean isOpen(int cell, int direction)
+  {
+    long[] bits = grid[cell].getBits();
+    long[] mask = openStates[direction];
+    for (int w = 0; w < bits.length; w++)
+    {
+      if ((bits[w] & ~mask[w]) != 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Determines if none of the options left to a cell has a wall on every side
+   */
+  private boolean isSureToOpen(int cell)
+  {
+    long[] bits = grid[cell].getBits();
+    for (int w = 0; w < bits.length; w++)
+    {
+      if ((bits[w] & solidStates[w]) != 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Searches the cells a cell can still reach past the walls decided so far, giving up after SEARCH_LIMIT of them
+   * @param start the grid index of the cell
+   * @return true if they are closed off, with an open cell among them and an open collapsed cell outside of them
+   */
+  private boolean isClosedOff(int start)
+  {
+    if (++search == 0)
+    {
+      Arrays.fill(seen, 0);
+      search = 1;
+      closedSearch = 0;
+    }
+
+    queue[0] = start;
+    seen[start] = search;
+    int head = 0;
+    int tail = 1;
+    int openInside = 0;
+    boolean sureToOpen = false;
+    while (head < tail)
+    {
+      int cell = queue[head++];
+      if (open[cell] > 0)
+      {
+        openInside++;
+        sureToOpen = true;
+      }
+      else if (open[cell] < 0 && !sureToOpen)
+      {
+        sureToOpen = isSureToOpen(cell);
+      }
+
+      for (int direction = 0; direction < 4; direction++)
+      {
+        int other = neighbor(cell, direction);
+        if (other < 0 || (walls[cell] & (1 << direction)) != 0 || seen[other] == search)
+          continue;
+        if (tail == SEARCH_LIMIT)
+          return false;
+        seen[other] = search;
+        queue[tail++] = other;
+      }
+    }
+    if (sureToOpen && openCells > openInside)
+    {
+      if (!closedOff)
+      {
+        closedOff = true;
+        closedSearch = search;
+        closedRoot = -1;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Determines if a cell is in or next to the area found closed off when the grid was found unconnected.
+   * Call it before any option is restored
+   * @param cell the grid index of the cell
+   * @return true if it is
+   */
+  boolean isNearClosedOff(int cell)
+  {
+    if (!closedOff)
+    {
+      return false;
+    }
+    for (int direction = -1; direction < 4; direction++)
+    {
+      int other = direction < 0 ? cell : neighbor(cell, direction);
+      if (other < 0)
+        continue;
+      if ((closedSearch != 0 && seen[other] == closedSearch) || (closedRoot >= 0 && find(other) == closedRoot))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Forgets the area found closed off, so the next time the grid is found unconnected is kept instead
+   */
+  void forgetClosedOff()
+  {
+    closedOff = false;
+  }
+
+  /**
+   * Returns the roots of a cell and its neighbors, each once, in touched
+   * @return the number of roots
+   */
+  private int touch(int cell)
+  {
+    int count = 0;
+    for (int direction = -1; direction < 4; direction++)
+    {
+      int other = direction < 0 ? cell : neighbor(cell, direction);
+      if (other < 0)
+        continue;
+
+      int root = find(other);
+      boolean seen = false;
+      for (int i = 0; i < count && !seen; i++)
+      {
+        seen = touched[i] == root;
+      }
+      if (!seen)
+        touched[count++] = root;
+    }
+    return count;
+  }
+
+  /**
+   * Adds a group to the counts of open groups and of groups that can still
+   * open, or takes it away from them
+   * @param root the root of the group
+   * @param sign 1 to add the group, -1 to take it away
+   */
+  private void count(int root, int sign)
+  {
+    if (openable[root] > 0 && undecided[root] > 0)
+      openableGroups += sign;
+    if (size[root] < 2 && open[root] <= 0)
+    {
+      return;
+    }
+    openGroups += sign;
+    if (undecided[root] == 0)
+      closedGroups += sign;
+  }
+
+  /**
+   * Returns the grid index of the cell on one side of another cell
+   * @return the grid index of the neighbor, or -1 if the cell is on that edge of the grid
+   */
+  private int neighbor(int cell, int direction)
+  {
+    switch (direction)
+    {
+      case Ruleset.UP:
+        return cell >= width ? cell - width : -1;
+      case Ruleset.RIGHT:
+        return cell % width < width - 1 ? cell + 1 : -1;
+      case Ruleset.DOWN:
+        return cell < (height - 1) * width ? cell + width : -1;
+      default:
+        return cell % width > 0 ? cell - 1 : -1;
+    }
+  }
+}
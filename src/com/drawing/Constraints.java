@@ -0,0 +1,219 @@
+package com.drawing;
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+/**
+ * The Constraints class describes what cells of a grid may become before it is collapsed,
+ * such as a start tile that is open, walls around the border, or a room placed by hand.
+ *
+ * Constraints only describe the cells; WaveFunction.constrain resolves them against the States of its tileset,
+ * so the same Constraints can be applied to any number of grids, of any size. Cells outside of a grid are ignored.
+ * A cell constrained more than once may only become the States every constraint on it allows.
+ * Constraints can also require the whole grid to be connected, which is checked as the grid collapses, see Connectivity.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class Constraints
+{
+  private final ArrayList<Entry> entries = new ArrayList<Entry>();
+  private boolean connected;
+
+  /**
+   * The cells of a rectangle, or of the border, and the States they may become
+   */
+  private static class Entry
+  {
+    private int top;
+    private int left;
+    private int rows;
+    private int cols;
+    private boolean border;
+    private int[] states;
+    private int[] tiles;
+    private Predicate<State> filter;
+
+    /**
+     * Returns a bitset of the States this entry allows
+     */
+    long[] mask(State[] all)
+    {
+      long[] mask = new long[Superposition.wordsFor(all.length)];
+      for (int s = 0; s < all.length; s++)
+      {
+        if (allows(s, all[s]))
+          mask[s >>> 6] |= 1L << s;
+      }
+      return mask;
+    }
+
+    private boolean allows(int index, State state)
+    {
+      if (states != null)
+        return contains(states, index);
+      if (tiles != null)
+        return contains(tiles, state.getReference());
+      return filter.test(state);
+    }
+
+    private static boolean contains(int[] values, int value)
+    {
+      for (int v : values)
+      {
+        if (v == value)
+          return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Pins a cell to a single State
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @param state the State index, as in WaveFunction.getMapping
+   * @return these Constraints
+   */
+  public Constraints pin(int row, int col, int state)
+  {
+    return allow(row, col, new int[] {state});
+  }
+
+  /**
+   * Restricts a cell to a set of States
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @param states the State indices the cell may become, as in WaveFunction.getMapping
+   * @return these Constraints
+   */
+  public Constraints allow(int row, int col, int[] states)
+  {
+    Entry entry = rectangle(row, col, 1, 1);
+    entry.states = states.clone();
+    return this;
+  }
+
+  /**
+   * Restricts a cell to a set of tiles, in any of their rotations
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @param tiles the indices of the tiles in the edge data
+   * @return these Constraints
+   */
+  public Constraints allowTiles(int row, int col, int[] tiles)
+  {
+    Entry entry = rectangle(row, col, 1, 1);
+    entry.tiles = tiles.clone();
+    return this;
+  }
+
+  /**
+   * Restricts every cell of a rectangle to the States a filter accepts
+   * @param top the row of the top of the rectangle
+   * @param left the column of the left of the rectangle
+   * @param rows the number of rows of the rectangle
+   * @param cols the number of columns of the rectangle
+   * @param filter the test of the States the cells may become
+   * @return these Constraints
+   */
+  public Constraints allow(int top, int left, int rows, int cols, Predicate<State> filter)
+  {
+    Entry entry = rectangle(top, left, rows, cols);
+    entry.filter = filter;
+    return this;
+  }
+
+  /**
+   * Restricts every cell on the border of the grid to the States a filter accepts
+   * @param filter the test of the States the cells may become
+   * @return these Constraints
+   */
+  public Constraints allowBorder(Predicate<State> filter)
+  {
+    Entry entry = new Entry();
+    entry.border = true;
+    entry.filter = filter;
+    entries.add(entry);
+    return this;
+  }
+
+  /**
+   * Requires every open cell of the grid to be reachable from every other, through edges without a wall on them.
+   * Cells with a wall on every side are solid, and need not be reached
+   * @return these Constraints
+   */
+  public Constraints connected()
+  {
+    connected = true;
+    return this;
+  }
+
+  /**
+   * Determines if the grid has to be connected
+   * @return true if every open cell has to be reachable
+   */
+  boolean isConnected()
+  {
+    return connected;
+  }
+
+  private Entry rectangle(int top, int left, int rows, int cols)
+  {
+    Entry entry = new Entry();
+    entry.top = top;
+    entry.left = left;
+    entry.rows = rows;
+    entry.cols = cols;
+    entries.add(entry);
+    return entry;
+  }
+
+  /**
+   * Resolves the constraints against a grid and its States
+   * @return for every cell, row by row, the bitset of States it may become, or null for an unconstrained cell
+   */
+  long[][] resolve(int width, int height, State[] states)
+  {
+    long[][] masks = new long[width * height][];
+    for (Entry entry : entries)
+    {
+      long[] mask = entry.mask(states);
+      if (entry.border)
+      {
+        for (int row = 0; row < height; row++)
+        {
+          for (int col = 0; col < width; col++)
+          {
+            if (row == 0 || col == 0 || row == height - 1 || col == width - 1)
+              intersect(masks, row * width + col, mask);
+          }
+        }
+        continue;
+      }
+
+      int bottom = Math.min(height, entry.top + entry.rows);
+      int right = Math.min(width, entry.left + entry.cols);
+      for (int row = Math.max(0, entry.top); row < bottom; row++)
+      {
+        for (int col = Math.max(0, entry.left); col < right; col++)
+        {
+          intersect(masks, row * width + col, mask);
+        }
+      }
+    }
+    return masks;
+  }
+
+  private static void intersect(long[][] masks, int cell, long[] mask)
+  {
+    if (masks[cell] == null)
+    {
+      masks[cell] = mask.clone();
+      return;
+    }
+    for (int w = 0; w < mask.length; w++)
+    {
+      masks[cell][w] &= mask[w];
+    }
+  }
+}
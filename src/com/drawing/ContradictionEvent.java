@@ -0,0 +1,35 @@
+package com.drawing;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The ContradictionEvent class is the Flight Recorder event of a WaveFunction recovering from a contradiction,
+ * lasting from the contradiction until the grid is consistent again, by backtracking or by restarting.
+ * A WaveFunction only makes one while the event is enabled.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+@Name("com.drawing.Contradiction")
+@Label("Contradiction Recovery")
+@Category({"Map Generation"})
+@Description("A WaveFunction recovering from a cell left without any option")
+class ContradictionEvent extends Event
+{
+  static final EventType TYPE = EventType.getEventType(ContradictionEvent.class);
+
+  @Label("Decisions")
+  @Description("The decisions that could still be undone when the contradiction was found")
+  int decisions;
+
+  @Label("Backtracks")
+  @Description("The decisions undone to recover")
+  int backtracks;
+
+  @Label("Restarted")
+  boolean restarted;
+}
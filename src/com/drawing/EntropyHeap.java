@@ -0,0 +1,193 @@
+package com.drawing;
+
+/**
+ * The EntropyHeap class is an indexed binary min-heap of grid cells, keyed by their entropy.
+ * Each cell's position in the heap is tracked, so a cell's key can be changed or the cell removed in O(log n)
+ * without searching for it. The WaveFunction uses it to find the least entropy Superposition without sorting the grid.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class EntropyHeap
+{
+  private int[] heap;       // the cells, in heap order
+  private int[] position;   // the index of each cell in heap, or -1 if the cell is not in the heap
+  private double[] keys;    // the key of each cell
+  private int size;
+
+  /**
+   * An EntropyHeap constructor, for the cells 0 to capacity-1
+   * @param capacity the number of cells in the grid
+   */
+  public EntropyHeap(int capacity)
+  {
+    heap = new int[capacity];
+    position = new int[capacity];
+    keys = new double[capacity];
+    clear();
+  }
+
+  /**
+   * Removes every cell from the heap
+   */
+  public void clear()
+  {
+    for (int i = 0; i < position.length; i++)
+    {
+      position[i] = -1;
+    }
+    size = 0;
+  }
+
+  /**
+   * Returns the number of cells in the heap
+   * @return the number of cells
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Determines if the heap has no cells left
+   * @return true if the heap is empty
+   */
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * Determines if a cell is in the heap
+   * @param cell the cell to look for
+   * @return true if the cell is in the heap
+   */
+  public boolean contains(int cell)
+  {
+    return position[cell] >= 0;
+  }
+
+  /**
+   * Returns the key a cell was last given
+   * @param cell the cell to look at
+   * @return the key of the cell
+   */
+  public double getKey(int cell)
+  {
+    return keys[cell];
+  }
+
+  /**
+   * Adds a cell to the heap, or changes its key if it is already in the heap
+   * @param cell the cell to add
+   * @param key the entropy of the cell
+   */
+  public void update(int cell, double key)
+  {
+    int index = position[cell];
+    if (index < 0)
+    {
+      keys[cell] = key;
+      heap[size] = cell;
+      position[cell] = size;
+      size++;
+      siftUp(size - 1);
+    }
+    else
+    {
+      double old = keys[cell];
+      keys[cell] = key;
+      if (key < old)
+        siftUp(index);
+      else
+        siftDown(index);
+    }
+  }
+
+  /**
+   * Returns the cell with the least key, without removing it
+   * @return the cell with the least key, or -1 if the heap is empty
+   */
+  public int peek()
+  {
+    if (size == 0)
+      return -1;
+    return heap[0];
+  }
+
+  /**
+   * Removes and returns the cell with the least key
+   * @return the cell with the least key, or -1 if the heap is empty
+   */
+  public int poll()
+  {
+    if (size == 0)
+      return -1;
+    int cell = heap[0];
+    remove(cell);
+    return cell;
+  }
+
+  /**
+   * Removes a cell from the heap, if it is in it
+   * @param cell the cell to remove
+   */
+  public void remove(int cell)
+  {
+    int index = position[cell];
+    if (index < 0)
+      return;
+
+    size--;
+    position[cell] = -1;
+    if (index == size)
+      return;
+
+    // move the last cell into the hole and restore the heap order around it
+    int last = heap[size];
+    heap[index] = last;
+    position[last] = index;
+    siftUp(index);
+    siftDown(position[last]);
+  }
+
+  private void siftUp(int index)
+  {
+    int cell = heap[index];
+    double key = keys[cell];
+    while (index > 0)
+    {
+      int parent = (index - 1) >>> 1;
+      int other = heap[parent];
+      if (keys[other] <= key)
+        break;
+      heap[index] = other;
+      position[other] = index;
+      index = parent;
+    }
+    heap[index] = cell;
+    position[cell] = index;
+  }
+
+  private void siftDown(int index)
+  {
+    int cell = heap[index];
+    double key = keys[cell];
+    int half = size >>> 1;
+    while (index < half)
+    {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < size && keys[heap[right]] < keys[heap[child]])
+        child = right;
+      int other = heap[child];
+      if (key <= keys[other])
+        break;
+      heap[index] = other;
+      position[other] = index;
+      index = child;
+    }
+    heap[index] = cell;
+    position[cell] = index;
+  }
+}
@@ -1,7 +1,10 @@
 package com.drawing;
 
 import java.awt.event.KeyEvent;
+import java.io.File;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.media.opengl.GL2;
 
 public class Game implements GShape
@@ -13,11 +16,22 @@ public class Game implements GShape
   private Menu mainMenu;
   private Menu pauseMenu;
   private Menu loadingMenu;
+  private MapGenerator generator;
+  private MapPool mapPool;
   
   // which screen is up, what has happened
   private boolean menuOpen;
   private boolean gameLive;
   
+  // the map being generated in the background, null when none is. It is swapped in by render,
+  // while holding stateLock so keystrokes never see a half swapped map
+  private final AtomicReference<CompletableFuture<MapGenerator.GeneratedMap>> pendingMap = 
+      new AtomicReference<CompletableFuture<MapGenerator.GeneratedMap>>();
+  private final Object stateLock = new Object();
+  private static final int NEW_MAP_SIZE = 20;
+  private static final int POOLED_MAPS = 4;
+  private static final int WORLD_CHUNK_SIZE = 16;
+  
   // Player position and scaling
   private float factor;
   private int pcColPos = 0, pcRowPos = 0;
@@ -31,6 +45,10 @@ public class Game implements GShape
   {
     this.vertex2f = Arrays.copyOf(vertex2f, vertex2f.length);
     
+    // tilesets are analyzed once, then read back from the rulesets folder of the user's cache, out of the working directory
+    File cache = new File(System.getProperty("user.home"), ".cache" + File.separator + "drawing" + File.separator + "rulesets");
+    WaveFunction.setRulesetCache(new RulesetCache(cache));
+    
     int numRows = 9, numCols = 9; // Display Rules
     factor = numRows > numCols ? (1f/numRows) : (1f/numCols);
     float[] mapData = {0, 0, factor, factor};
@@ -41,13 +59,18 @@ public class Game implements GShape
     this.myPC = new PlayerCharacter(gl, pcData, pcEdgeData);
     
     float[] menuData = {0, 0, 1, 1};
-    menuOptions = new String[] {"New", "Load"};
+    menuOptions = new String[] {"New", "Load", "World"};
     this.mainMenu = new Menu(gl, menuData, "Capstone", menuOptions);
     
-    pauseOptions =  new String[] {"New", "Load", "Save", "Continue"};
+    pauseOptions =  new String[] {"New", "Load", "Save", "Continue", "World"};
     this.pauseMenu = new Menu(gl, menuData, "Capstone", pauseOptions);
     
     this.loadingMenu = new Menu(gl, menuData, "Loading");
+    this.generator = new MapGenerator();
+    
+    // maps for "New" are generated ahead of time, on a single background thread
+    this.mapPool = new MapPool(1);
+    this.myMap.configurePool(mapPool, true, NEW_MAP_SIZE, NEW_MAP_SIZE, POOLED_MAPS);
     
     this.menuOpen = true;
     this.gameLive = false;
@@ -60,7 +83,28 @@ public class Game implements GShape
   
   public void processKeyBoardEvent(int key) 
   {
-    if (menuOpen && !gameLive)
+    synchronized (stateLock)
+    {
+      this.processKey(key);
+    }
+  }
+  
+  private void processKey(int key)
+  {
+    if (pendingMap.get() != null)
+    {
+      // Enter starts over on another map, Escape gives up on it and goes back to the menu
+      if (key == KeyEvent.VK_ENTER)
+      {
+        this.processSelection("New");
+      }
+      else if (key == KeyEvent.VK_ESCAPE)
+      {
+        pendingMap.set(null);
+        generator.cancel();
+      }
+    }
+    else if (menuOpen && !gameLive)
     {
       if (key == KeyEvent.VK_UP || key == KeyEvent.VK_W)
       {
@@ -72,7 +116,7 @@ public class Game implements GShape
       }
       else if (key == KeyEvent.VK_ENTER)
       {
-        this.processSelection(mainMenu.getSelectedOption());
+        this.processSelection(menuOptions[mainMenu.getSelectedOption()]);
         mainMenu.resetSelection();
       }
     }
@@ -88,7 +132,7 @@ public class Game implements GShape
       }
       else if (key == KeyEvent.VK_ENTER)
       {
-        this.processSelection(pauseMenu.getSelectedOption());
+        this.processSelection(pauseOptions[pauseMenu.getSelectedOption()]);
         pauseMenu.resetSelection();
       }
       else if (key == KeyEvent.VK_ESCAPE)
@@ -152,40 +196,88 @@ public class Game implements GShape
     }
   }
   
-  private void processSelection(int selection)
+  private void processSelection(String selection)
   {
-    if (selection == 0) // New
+    if (selection.equals("New"))
     {
-        gameLive = true;
-        menuOpen = false;
-        
-        myMap.loadWaveFunction(true, 20, 20);
-        myMap.runWaveFunction(20, 20);
-        
-        pcRowPos = 0;
-        pcColPos = 0;
-        
-        myPC.setX(pcRowPos*factor + factor/4);
-        myPC.setY(pcColPos*factor + factor/4);
-        
-        myPC.setEdgeData(myMap.getFocusEdgeData());
-    }
-    else if (selection == 1) // Load
+        // a map from the pool is swapped in on the next frame. Otherwise the map is generated in the background,
+        // behind the loading menu. Either way, any map still being generated is cancelled
+        MapGenerator.GeneratedMap ready = myMap.pollPool(mapPool, true, NEW_MAP_SIZE, NEW_MAP_SIZE);
+        if (ready != null)
+        {
+          generator.cancel();
+          pendingMap.set(CompletableFuture.completedFuture(ready));
+        }
+        else
+        {
+          pendingMap.set(myMap.generateInBackground(generator, true, NEW_MAP_SIZE, NEW_MAP_SIZE));
+        }
+    }
+    else if (selection.equals("Load"))
     {
       if (myMap.loadFromFile("test.txt"))
       {
-        gameLive = true;
-        menuOpen = false;
+        this.finishLoading();
       }
     }
-    else if (selection == 2) // Save
+    else if (selection.equals("Save"))
     {
       myMap.saveToFile("test.txt");
     }
-    else if (selection == 3) // Continue
+    else if (selection.equals("Continue"))
     {
       menuOpen = false;
     }
+    else if (selection.equals("World"))
+    {
+      // an unbounded maze, generated chunk by chunk as the player walks
+      pendingMap.set(null);
+      generator.cancel();
+      myMap.loadChunkedWorld(true, WORLD_CHUNK_SIZE, System.nanoTime());
+      this.finishLoading();
+    }
+  }
+  
+  private void finishLoading()
+  {
+    gameLive = true;
+    menuOpen = false;
+    
+    pcRowPos = myMap.getFocusDisplayRow();
+    pcColPos = myMap.getFocusDisplayCol();
+    
+    myPC.setX(pcRowPos*factor + factor/4);
+    myPC.setY(pcColPos*factor + factor/4);
+    
+    myPC.setEdgeData(myMap.getFocusEdgeData());
+  }
+  
+  // Swaps in the map being generated once it is done
+  private void checkPendingMap()
+  {
+    CompletableFuture<MapGenerator.GeneratedMap> future = pendingMap.get();
+    if (future == null || !future.isDone())
+    {
+      return;
+    }
+    
+    synchronized (stateLock)
+    {
+      // a keystroke may have replaced or cancelled it in the meantime
+      if (!pendingMap.compareAndSet(future, null) || future.isCancelled())
+      {
+        return;
+      }
+      
+      MapGenerator.GeneratedMap generated = future.isCompletedExceptionally() ? null : future.getNow(null);
+      if (generated == null || generated.isFailed())
+      {
+        System.out.println("The map could not be generated.");
+        return;
+      }
+      myMap.applyGeneratedMap(generated);
+      this.finishLoading();
+    }
   }
   
   public void printArrayToConsole(int[] arr)
@@ -204,7 +296,13 @@ public class Game implements GShape
     gl.glColor3f(1.0f, 1.0f, 1.0f); // drawing color
     gl.glScalef(vertex2f[2], vertex2f[3], 1.0f);
     
-    if (menuOpen && !gameLive)
+    this.checkPendingMap();
+    
+    if (pendingMap.get() != null)
+    {
+      loadingMenu.render(gl);
+    }
+    else if (menuOpen && !gameLive)
     {
       mainMenu.render(gl);
     }
@@ -0,0 +1,89 @@
+package com.drawing;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The GenerationEvent class is the Flight Recorder event of one grid generated by a WaveFunction,
+ * lasting from its start until it is collapsed or given up on, and carrying the grid's GenerationMetrics.
+ * A WaveFunction only makes one while the event is enabled, so a grid generated without recording allocates none.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+@Name("com.drawing.Generation")
+@Label("Grid Generation")
+@Category({"Map Generation"})
+@Description("A grid generated by a WaveFunction")
+class GenerationEvent extends Event
+{
+  static final EventType TYPE = EventType.getEventType(GenerationEvent.class);
+
+  @Label("Width")
+  int width;
+
+  @Label("Height")
+  int height;
+
+  @Label("States")
+  int states;
+
+  @Label("Failed")
+  boolean failed;
+
+  @Label("Cells Collapsed")
+  @Description("Cells collapsed by a decision")
+  long cellsCollapsed;
+
+  @Label("Options Removed")
+  long optionsRemoved;
+
+  @Label("Contradictions")
+  long contradictions;
+
+  @Label("Backtracks")
+  long backtracks;
+
+  @Label("Restarts")
+  long restarts;
+
+  @Label("Selection Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long selectionTime;
+
+  @Label("Propagation Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long propagationTime;
+
+  @Label("Copy Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long copyTime;
+
+  /**
+   * Ends the event and commits it with a grid's metrics, if it is recorded at all
+   */
+  void report(int width, int height, int states, GenerationMetrics metrics)
+  {
+    end();
+    if (!shouldCommit())
+      return;
+
+    this.width = width;
+    this.height = height;
+    this.states = states;
+    this.failed = metrics.getFailures() > 0;
+    this.cellsCollapsed = metrics.getCellsCollapsed();
+    this.optionsRemoved = metrics.getOptionsRemoved();
+    this.contradictions = metrics.getContradictions();
+    this.backtracks = metrics.getBacktracks();
+    this.restarts = metrics.getRestarts();
+    this.selectionTime = metrics.getSelectionNanos();
+    this.propagationTime = metrics.getPropagationNanos();
+    this.copyTime = metrics.getCopyNanos();
+    commit();
+  }
+}
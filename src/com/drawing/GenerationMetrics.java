@@ -0,0 +1,228 @@
+package com.drawing;
+
+/**
+ * The GenerationMetrics class is a snapshot of the work done generating grids, never changed once made.
+ *
+ * A WaveFunction counts its own work as it goes, and getMetrics returns a snapshot of the grid it is generating.
+ * Every finished grid is also added to running totals for the whole program, kept as plain counts so adding to them
+ * allocates nothing, and getTotals returns a snapshot of them. The work of a period is the difference of the totals
+ * at its end and at its start.
+ *
+ * The time of a grid is split into three phases: selection, choosing the cell to collapse and the State it becomes;
+ * propagation, removing the options that no longer fit, including backtracking; and copy, filling the buffers
+ * with every cell's starting options and moving collapsed values between grids.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class GenerationMetrics
+{
+  /**
+   * The metrics of no work at all
+   */
+  public static final GenerationMetrics NONE = new GenerationMetrics(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+  // the running totals, only read or written while holding totalsLock
+  private static final Object totalsLock = new Object();
+  private static long totalGenerations;
+  private static long totalFailures;
+  private static long totalCellsCollapsed;
+  private static long totalOptionsRemoved;
+  private static long totalContradictions;
+  private static long totalBacktracks;
+  private static long totalRestarts;
+  private static long totalSelectionNanos;
+  private static long totalPropagationNanos;
+  private static long totalCopyNanos;
+
+  private final long generations;
+  private final long failures;
+  private final long cellsCollapsed;
+  private final long optionsRemoved;
+  private final long contradictions;
+  private final long backtracks;
+  private final long restarts;
+  private final long selectionNanos;
+  private final long propagationNanos;
+  private final long copyNanos;
+
+  GenerationMetrics(long generations, long failures, long cellsCollapsed, long optionsRemoved, long contradictions, long backtracks, long restarts,
+                    long selectionNanos, long propagationNanos, long copyNanos)
+  {
+    this.generations = generations;
+    this.failures = failures;
+    this.cellsCollapsed = cellsCollapsed;
+    this.optionsRemoved = optionsRemoved;
+    this.contradictions = contradictions;
+    this.backtracks = backtracks;
+    this.restarts = restarts;
+    this.selectionNanos = selectionNanos;
+    this.propagationNanos = propagationNanos;
+    this.copyNanos = copyNanos;
+  }
+
+  /**
+   * Returns the metrics of every grid finished so far, by any WaveFunction
+   * @return the running totals
+   */
+  public static GenerationMetrics getTotals()
+  {
+    synchronized (totalsLock)
+    {
+      return new GenerationMetrics(totalGenerations, totalFailures, totalCellsCollapsed, totalOptionsRemoved,
+                                   totalContradictions, totalBacktracks, totalRestarts,
+                                   totalSelectionNanos, totalPropagationNanos, totalCopyNanos);
+    }
+  }
+
+  /**
+   * Adds a finished grid to the running totals
+   */
+  static void addToTotals(boolean failed, long cellsCollapsed, long optionsRemoved, long contradictions,
+                          long backtracks, long restarts, long selectionNanos, long propagationNanos, long copyNanos)
+  {
+    synchronized (totalsLock)
+    {
+      totalGenerations++;
+      if (failed)
+        totalFailures++;
+      totalCellsCollapsed += cellsCollapsed;
+      totalOptionsRemoved += optionsRemoved;
+      totalContradictions += contradictions;
+      totalBacktracks += backtracks;
+      totalRestarts += restarts;
+      totalSelectionNanos += selectionNanos;
+      totalPropagationNanos += propagationNanos;
+      totalCopyNanos += copyNanos;
+    }
+  }
+
+  /**
+   * Returns the sum of these metrics and others
+   * @param other the metrics to add
+   * @return the sum
+   */
+  public GenerationMetrics plus(GenerationMetrics other)
+  {
+    return new GenerationMetrics(generations + other.generations, failures + other.failures,
+                                 cellsCollapsed + other.cellsCollapsed, optionsRemoved + other.optionsRemoved,
+                                 contradictions + other.contradictions,
+                                 backtracks + other.backtracks, restarts + other.restarts, selectionNanos + other.selectionNanos,
+                                 propagationNanos + other.propagationNanos, copyNanos + other.copyNanos);
+  }
+
+  /**
+   * Returns the work done since an earlier snapshot of the totals
+   * @param earlier the earlier snapshot
+   * @return these metrics less the earlier ones
+   */
+  public GenerationMetrics minus(GenerationMetrics earlier)
+  {
+    return new GenerationMetrics(generations - earlier.generations, failures - earlier.failures,
+                                 cellsCollapsed - earlier.cellsCollapsed, optionsRemoved - earlier.optionsRemoved,
+                                 contradictions - earlier.contradictions,
+                                 backtracks - earlier.backtracks, restarts - earlier.restarts, selectionNanos - earlier.selectionNanos,
+                                 propagationNanos - earlier.propagationNanos, copyNanos - earlier.copyNanos);
+  }
+
+  /**
+   * Returns the number of grids generated. A WaveFunction's own metrics count its grid as 1, finished or not
+   * @return the number of grids
+   */
+  public long getGenerations()
+  {
+    return generations;
+  }
+
+  /**
+   * Returns the number of grids that could not be collapsed
+   * @return the number of failed grids
+   */
+  public long getFailures()
+  {
+    return failures;
+  }
+
+  /**
+   * Returns the number of cells collapsed by a decision. The rest of the cells are collapsed by propagation
+   * @return the number of decisions
+   */
+  public long getCellsCollapsed()
+  {
+    return cellsCollapsed;
+  }
+
+  /**
+   * Returns the number of options removed from cells, including the ones later restored by backtracking.
+   * Every removal is propagated to the cell's neighbors once
+   * @return the number of removals
+   */
+  public long getOptionsRemoved()
+  {
+    return optionsRemoved;
+  }
+
+  /**
+   * Returns the number of contradictions found, a cell being left without any option
+   * @return the number of contradictions
+   */
+  public long getContradictions()
+  {
+    return contradictions;
+  }
+
+  /**
+   * Returns the number of decisions undone to recover from contradictions
+   * @return the number of backtracks
+   */
+  public long getBacktracks()
+  {
+    return backtracks;
+  }
+
+  /**
+   * Returns the number of times grids were started over
+   * @return the number of restarts
+   */
+  public long getRestarts()
+  {
+    return restarts;
+  }
+
+  /**
+   * Returns the time spent choosing cells and their States
+   * @return the time in nanoseconds
+   */
+  public long getSelectionNanos()
+  {
+    return selectionNanos;
+  }
+
+  /**
+   * Returns the time spent removing options and propagating the removals, including backtracking
+   * @return the time in nanoseconds
+   */
+  public long getPropagationNanos()
+  {
+    return propagationNanos;
+  }
+
+  /**
+   * Returns the time spent filling cells with their starting options and copying collapsed values
+   * @return the time in nanoseconds
+   */
+  public long getCopyNanos()
+  {
+    return copyNanos;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "generations=" + generations + " failures=" + failures + " cellsCollapsed=" + cellsCollapsed
+        + " optionsRemoved=" + optionsRemoved
+        + " contradictions=" + contradictions + " backtracks=" + backtracks + " restarts=" + restarts
+        + " selectionMs=" + selectionNanos / 1000000 + " propagationMs=" + propagationNanos / 1000000
+        + " copyMs=" + copyNanos / 1000000;
+  }
+}
@@ -0,0 +1,146 @@
+package com.drawing;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The GridStorage class holds the collapsed State index of every cell of a grid outside of the Java heap,
+ * either in direct memory or in a memory-mapped file, two bytes per cell.
+ *
+ * A WaveFunction given a GridStorage keeps none of its grid on the heap and collapses it block by block,
+ * so grids of tens of millions of cells can be generated without running out of heap or adding to the
+ * work of the garbage collector. The memory is split into pages, as a single buffer cannot pass 2 GB.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class GridStorage
+{
+  // each page holds 2^29 cells, 1 GB
+  private static final int PAGE_SHIFT = 29;
+  private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+  private int cells;
+  private ByteBuffer[] pages;
+  private boolean mapped;
+
+  /**
+   * A GridStorage constructor, in direct memory
+   * @param cells the number of cells of the grid
+   */
+  public GridStorage(int cells)
+  {
+    this.cells = cells;
+    this.pages = new ByteBuffer[pageCount(cells)];
+    for (int p = 0; p < pages.length; p++)
+    {
+      pages[p] = ByteBuffer.allocateDirect(pageBytes(p)).order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /**
+   * A GridStorage constructor, in a memory-mapped file. The file is created or resized as needed,
+   * and the operating system pages the grid in and out of memory
+   * @param cells the number of cells of the grid
+   * @param file the file to map
+   * @throws IOException if the file cannot be created or mapped
+   */
+  public GridStorage(int cells, File file) throws IOException
+  {
+    this.cells = cells;
+    this.pages = new ByteBuffer[pageCount(cells)];
+    this.mapped = true;
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try
+    {
+      raf.setLength(2L * cells);
+      FileChannel channel = raf.getChannel();
+      for (int p = 0; p < pages.length; p++)
+      {
+        // a mapping stays valid after its channel is closed
+        pages[p] = channel.map(FileChannel.MapMode.READ_WRITE, (long) p << (PAGE_SHIFT + 1), pageBytes(p))
+                          .order(ByteOrder.nativeOrder());
+      }
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+
+  private static int pageCount(int cells)
+  {
+    return Math.max(1, (int) (((long) cells + PAGE_MASK) >>> PAGE_SHIFT));
+  }
+
+  private int pageBytes(int page)
+  {
+    long first = (long) page << PAGE_SHIFT;
+    return (int) (2 * Math.min(1L << PAGE_SHIFT, cells - first));
+  }
+
+  /**
+   * Returns the number of cells of the grid
+   * @return the number of cells
+   */
+  public int size()
+  {
+    return cells;
+  }
+
+  /**
+   * Returns the State index a cell was collapsed to
+   * @param cell the grid index of the cell
+   * @return the State index, or -1 if the cell is not collapsed
+   */
+  public int getValue(int cell)
+  {
+    return pages[cell >>> PAGE_SHIFT].getShort((cell & PAGE_MASK) << 1);
+  }
+
+  /**
+   * Sets the State index of a cell
+   * @param cell the grid index of the cell
+   * @param value the State index, at most 32767, or -1 for a cell that is not collapsed
+   */
+  public void setValue(int cell, int value)
+  {
+    pages[cell >>> PAGE_SHIFT].putShort((cell & PAGE_MASK) << 1, (short) value);
+  }
+
+  /**
+   * Sets every cell to the same value
+   * @param value the State index, or -1 for cells that are not collapsed
+   */
+  public void fill(int value)
+  {
+    short v = (short) value;
+    for (ByteBuffer page : pages)
+    {
+      for (int i = 0, n = page.capacity(); i < n; i += 2)
+      {
+        page.putShort(i, v);
+      }
+    }
+  }
+
+  /**
+   * Writes the grid through to its file. Does nothing for direct memory
+   */
+  public void flush()
+  {
+    if (!mapped)
+    {
+      return;
+    }
+    for (ByteBuffer page : pages)
+    {
+      ((MappedByteBuffer) page).force();
+    }
+  }
+}
@@ -0,0 +1,772 @@
+package com.drawing;
+import java.util.Arrays;
+
+/**
+ * The HierarchicalPathFinder class finds paths on large Walkabilities by HPA*, searching a small abstract graph
+ * instead of the grid, so a path across the map costs about as much as one across a few clusters.
+ *
+ * The grid is split into square clusters. Along each border between two clusters, the cells a character can cross at
+ * are grouped into entrances, runs that can also be walked along on both sides, so crossing anywhere in a run is as good
+ * as crossing anywhere else in it. Each entrance puts a node on both sides of its middle, or of both of its ends
+ * once it is LONG_ENTRANCE long. Within each cluster, the shortest path from every cell to each of its nodes is searched
+ * once and kept as the direction of the step towards the node, 2 bits a cell, along with the lengths between its nodes.
+ *
+ * A query searches within the start's and the goal's clusters for their nodes, then searches the nodes by A*,
+ * stepping across an entrance or to another node of the same cluster. The result is a list of waypoints, each one step
+ * from the last or in the same cluster, which refine turns into the cells between them only when they are needed,
+ * mostly by following the directions kept for the node. Paths are at most a few steps longer than the shortest.
+ *
+ * The abstraction is built once. When the map changes, update compares the new Walkability with the old one
+ * and only rebuilds the clusters whose cells changed, and the neighbors whose entrances changed with them.
+ * As in PathFinder, every buffer is made when the abstraction is built, so a query allocates nothing.
+ *
+ * A HierarchicalPathFinder is not thread safe, each thread needs its own.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class HierarchicalPathFinder
+{
+  public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+  // entrances at least this long get a node at each end rather than one in the middle
+  private static final int LONG_ENTRANCE = 6;
+
+  // the change in row and in column of a step in each direction, as in Ruleset
+  private static final int[] ROW_STEPS = {-1, 0, 1, 0};
+  private static final int[] COL_STEPS = {0, 1, 0, -1};
+
+  private Walkability walkability;
+  private final int width;
+  private final int height;
+  private final int clusterSize;
+  private final int clusterRows;
+  private final int clusterCols;
+  private final int[] offsets;  // the change in grid index of a step in each direction
+
+  // the abstraction, per cluster
+  private final int[][] nodes;        // the cells of the nodes of each cluster, in row order
+  private final int[][] distances;    // for each cluster, the length of the path between its nodes i and j within it at i * nodes + j, or -1
+  private final int[][][] towards;    // for each node of each cluster, the direction of the step towards it out of each cell of the cluster
+  private final int[] nodeIndex;      // the index of each cell among its cluster's nodes, or -1 if it is not a node
+  private int rebuilds;
+
+  // the abstract search, per cell, valid only where stamp is the current search
+  private final int[] stamp;
+  private final int[] cost;
+  private final int[] previous;
+  private final PathHeap open;
+  private int search;
+  private int expanded;
+
+  // the searches within a cluster, per cell of the cluster, row * clusterSize + col within it
+  private final int[] localStamp;
+  private final int[] localCost;
+  private final int[] localQueue;
+  private final int[] localTowards;
+  private int localSearch;
+
+  // the lengths from the start to each node of its cluster, and from each node of the goal's cluster to the goal
+  private int[] startCosts;
+  private int[] goalCosts;
+  private int[] waypoints;
+
+  /**
+   * A HierarchicalPathFinder constructor, with clusters of DEFAULT_CLUSTER_SIZE
+   * @param walkability the grid to find paths on
+   */
+  public HierarchicalPathFinder(Walkability walkability)
+  {
+    this(walkability, DEFAULT_CLUSTER_SIZE);
+  }
+
+  /**
+   * A HierarchicalPathFinder constructor
+   * @param walkability the grid to find paths on
+   * @param clusterSize the width and height of a cluster, from 2 to 128
+   */
+  public HierarchicalPathFinder(Walkability walkability, int clusterSize)
+  {
+    if (clusterSize < 2 || clusterSize > 128)
+    {
+      throw new IllegalArgumentException("A cluster is from 2 to 128 cells wide, not " + clusterSize + ".");
+    }
+    this.walkability = walkability;
+    this.width = walkability.getWidth();
+    this.height = walkability.getHeight();
+    this.clusterSize = clusterSize;
+    this.clusterRows = (height + clusterSize - 1) / clusterSize;
+    this.clusterCols = (width + clusterSize - 1) / clusterSize;
+    this.offsets = new int[] {-width, 1, width, -1};
+
+    int cells = width * height;
+    int clusters = clusterRows * clusterCols;
+    nodes = new int[clusters][];
+    distances = new int[clusters][];
+    towards = new int[clusters][][];
+    nodeIndex = new int[cells];
+    stamp = new int[cells];
+    cost = new int[cells];
+    previous = new int[cells];
+    open = new PathHeap(cells);
+
+    int local = clusterSize * clusterSize;
+    localStamp = new int[local];
+    localCost = new int[local];
+    localQueue = new int[local];
+    localTowards = new int[(local + 15) / 16];
+
+    // every cluster is built as if all of them had changed
+    Arrays.fill(nodeIndex, -1);
+    for (int cluster = 0; cluster < clusters; cluster++)
+    {
+      markEntrances(cluster);
+    }
+    for (int cluster = 0; cluster < clusters; cluster++)
+    {
+      nodes[cluster] = new int[0];
+      rebuild(cluster, true);
+    }
+    rebuilds = 0;
+    sizeBuffers();
+  }
+
+  /**
+   * Returns the grid this HierarchicalPathFinder finds paths on
+   * @return the Walkability
+   */
+  public Walkability getWalkability()
+  {
+    return walkability;
+  }
+
+  /**
+   * Returns the width and height of a cluster
+   * @return the cluster size
+   */
+  public int getClusterSize()
+  {
+    return clusterSize;
+  }
+
+  /**
+   * Returns how much work the latest search did
+   * @return the number of cells and nodes it expanded
+   */
+  public int getExpanded()
+  {
+    return expanded;
+  }
+
+  /**
+   * Returns how many clusters update has rebuilt, to see that a change only rebuilds the clusters around it
+   * @return the number of clusters rebuilt since the abstraction was built
+   */
+  public int getRebuilds()
+  {
+    return rebuilds;
+  }
+
+  /**
+   * Moves on to a changed grid, rebuilding the abstraction only for the clusters whose cells changed, and their neighbors
+   * if an entrance between them changed
+   * @param walkability the changed grid, of the same width and height
+   */
+  public void update(Walkability walkability)
+  {
+    if (walkability.getWidth() != width || walkability.getHeight() != height)
+    {
+      throw new IllegalArgumentException("The grid is " + walkability.getWidth() + "x" + walkability.getHeight()
+                                         + ", not " + width + "x" + height + ".");
+    }
+    Walkability old = this.walkability;
+    this.walkability = walkability;
+
+    int clusters = clusterRows * clusterCols;
+    boolean[] changed = new boolean[clusters];
+    boolean[] affected = new boolean[clusters];
+    for (int cluster = 0; cluster < clusters; cluster++)
+    {
+      if (!hasChanged(cluster, old))
+        continue;
+      changed[cluster] = true;
+      affected[cluster] = true;
+      for (int direction = 0; direction < 4; direction++)
+      {
+        int other = neighborCluster(cluster, direction);
+        if (other >= 0)
+          affected[other] = true;
+      }
+    }
+
+    // only the entrances on a border of a changed cluster can change, and every one of them is between two affected clusters.
+    // The entrances of an affected cluster with an unaffected one are marked again just as they were
+    for (int cluster = 0; cluster < clusters; cluster++)
+    {
+      if (affected[cluster])
+        clearMarks(cluster);
+    }
+    for (int cluster = 0; cluster < clusters; cluster++)
+    {
+      if (affected[cluster])
+        markEntrances(cluster);
+    }
+    for (int cluster = 0; cluster < clusters; cluster++)
+    {
+      if (affected[cluster])
+        rebuild(cluster, changed[cluster]);
+      else
+        restoreIndices(cluster);
+    }
+    sizeBuffers();
+  }
+
+  /**
+   * Finds a path between two cells, made of waypoints to be refined, each one step from the last or in the same cluster
+   * @param startRow the row of the cell to start from
+   * @param startCol the column of the cell to start from
+   * @param goalRow the row of the cell to get to
+   * @param goalCol the column of the cell to get to
+   * @param waypoints filled with the grid index of each waypoint from the start to the goal, as many as fit
+   * @return the number of waypoints, both ends included, or -1 if the goal cannot be reached
+   */
+  public int findWaypoints(int startRow, int startCol, int goalRow, int goalCol, int[] waypoints)
+  {
+    int goal = goalRow * width + goalCol;
+    if (!search(startRow * width + startCol, goal))
+      return -1;
+
+    int count = 0;
+    for (int cell = goal; cell >= 0; cell = previous[cell])
+    {
+      count++;
+    }
+    int index = count - 1;
+    for (int cell = goal; cell >= 0; cell = previous[cell])
+    {
+      if (index < waypoints.length)
+        waypoints[index] = cell;
+      index--;
+    }
+    return count;
+  }
+
+  /**
+   * Finds the cells from one waypoint to the next
+   * @param from the grid index of the waypoint
+   * @param to the grid index of the next waypoint, one step away or in the same cluster
+   * @param path filled with the grid index of each cell from one to the other, as many as fit
+   * @return the number of cells, both ends included, or -1 if there is no path within the cluster
+   */
+  public int refine(int from, int to, int[] path)
+  {
+    return refine(from, to, path, 0);
+  }
+
+  /**
+   * Finds a path between two cells, refining all of its waypoints
+   * @param startRow the row of the cell to start from
+   * @param startCol the column of the cell to start from
+   * @param goalRow the row of the cell to get to
+   * @param goalCol the column of the cell to get to
+   * @param path filled with the grid index of each cell of the path from the start to the goal, as many as fit.
+   * May be null to only find the length
+   * @return the number of cells of the path, both ends included, or -1 if the goal cannot be reached
+   */
+  public int findPath(int startRow, int startCol, int goalRow, int goalCol, int[] path)
+  {
+    int count = findWaypoints(startRow, startCol, goalRow, goalCol, waypoints);
+    if (count < 0)
+      return -1;
+    if (path == null || path.length == 0)
+      return cost[goalRow * width + goalCol] + 1;
+
+    // each waypoint ends one refined stretch and starts the next
+    int length = 1;
+    path[0] = waypoints[0];
+    for (int i = 1; i < count; i++)
+    {
+      length += refine(waypoints[i - 1], waypoints[i], path, length - 1) - 1;
+    }
+    return length;
+  }
+
+  /**
+   * Finds the number of steps between two cells along the path findPath would find
+   * @param startRow the row of the cell to start from
+   * @param startCol the column of the cell to start from
+   * @param goalRow the row of the cell to get to
+   * @param goalCol the column of the cell to get to
+   * @return the number of steps, or -1 if the goal cannot be reached
+   */
+  public int distance(int startRow, int startCol, int goalRow, int goalCol)
+  {
+    int goal = goalRow * width + goalCol;
+    if (!search(startRow * width + startCol, goal))
+      return -1;
+    return cost[goal];
+  }
+
+  /**
+   * Searches the abstract graph, with the start and the goal joined to the nodes of their clusters, until the goal is expanded
+   * @return true if the goal was reached, with the costs and previous waypoints set along the path to it
+   */
+  private boolean search(int start, int goal)
+  {
+    expanded = 0;
+    if (!walkability.canReach(start, goal))
+      return false;
+
+    if (++search == 0)
+    {
+      Arrays.fill(stamp, 0);
+      search = 1;
+    }
+    open.clear();
+    int goalRow = goal / width;
+    int goalCol = goal % width;
+    int startCluster = clusterOf(start);
+    int goalCluster = clusterOf(goal);
+
+    // the goal's cluster is searched first, as the start's search is still needed for a goal in the same cluster
+    searchCluster(goal, null);
+    costsToNodes(goalCluster, goalCosts);
+    searchCluster(start, null);
+    costsToNodes(startCluster, startCosts);
+    int direct = startCluster == goalCluster ? localCostOf(goal) : -1;
+
+    stamp[start] = search;
+    cost[start] = 0;
+    previous[start] = -1;
+    int h = Math.abs(start / width - goalRow) + Math.abs(start % width - goalCol);
+    open.push(start, PathHeap.key(h, h));
+    while (!open.isEmpty())
+    {
+      int cell = open.pop();
+      expanded++;
+      if (cell == goal)
+        return true;
+
+      int cluster = clusterOf(cell);
+      int[] clusterNodes = nodes[cluster];
+      int index = nodeIndex[cell];
+      if (cell == start)
+      {
+        for (int j = 0; j < clusterNodes.length; j++)
+        {
+          if (startCosts[j] >= 0)
+            relax(cell, clusterNodes[j], startCosts[j], goalRow, goalCol);
+        }
+        if (direct >= 0)
+          relax(cell, goal, direct, goalRow, goalCol);
+      }
+      else
+      {
+        int[] lengths = distances[cluster];
+        for (int j = 0; j < clusterNodes.length; j++)
+        {
+          int length = lengths[index * clusterNodes.length + j];
+          if (j != index && length >= 0)
+            relax(cell, clusterNodes[j], length, goalRow, goalCol);
+        }
+        if (cluster == goalCluster && goalCosts[index] >= 0)
+          relax(cell, goal, goalCosts[index], goalRow, goalCol);
+      }
+
+      // a node steps across its entrance to the node on the other side
+      if (index >= 0)
+      {
+        int sides = walkability.getSides(cell);
+        for (int direction = 0; direction < 4; direction++)
+        {
+          int other = cell + offsets[direction];
+          if ((sides & (1 << direction)) != 0 && nodeIndex[other] >= 0 && clusterOf(other) != cluster)
+            relax(cell, other, 1, goalRow, goalCol);
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reaches a waypoint from another through an edge of the abstract graph, if it is shorter than any way found so far
+   */
+  private void relax(int cell, int other, int length, int goalRow, int goalCol)
+  {
+    int next = cost[cell] + length;
+    int h = Math.abs(other / width - goalRow) + Math.abs(other % width - goalCol);
+    if (stamp[other] != search)
+    {
+      stamp[other] = search;
+      cost[other] = next;
+      previous[other] = cell;
+      open.push(other, PathHeap.key(next + h, h));
+    }
+    else if (open.isQueued(other) && next < cost[other])
+    {
+      cost[other] = next;
+      previous[other] = cell;
+      open.decrease(other, PathHeap.key(next + h, h));
+    }
+  }
+
+  /**
+   * Writes the cells from one waypoint to the next into a path, from an index on
+   * @return the number of cells, both ends included, or -1 if there is no path within the cluster
+   */
+  private int refine(int from, int to, int[] path, int offset)
+  {
+    if (offset < path.length)
+      path[offset] = from;
+    if (from == to)
+      return 1;
+
+    // a step across an entrance, or any other single step
+    for (int direction = 0; direction < 4; direction++)
+    {
+      if ((walkability.getSides(from) & (1 << direction)) != 0 && from + offsets[direction] == to)
+      {
+        if (offset + 1 < path.length)
+          path[offset + 1] = to;
+        return 2;
+      }
+    }
+
+    int cluster = clusterOf(from);
+    if (clusterOf(to) != cluster)
+      return -1;
+    int[] steps;
+    if (nodeIndex[to] >= 0)
+    {
+      steps = towards[cluster][nodeIndex[to]];
+    }
+    else
+    {
+      searchCluster(to, localTowards);
+      if (localCostOf(from) < 0)
+        return -1;
+      steps = localTowards;
+    }
+
+    // the steps were kept for every cell that reaches the goal, so following them from any other cell
+    // soon leaves the cluster or walks into a wall
+    int length = 1;
+    int cell = from;
+    while (cell != to)
+    {
+      int direction = getStep(steps, localIndex(cell));
+      if ((walkability.getSides(cell) & (1 << direction)) == 0 || length > clusterSize * clusterSize)
+        return -1;
+      cell += offsets[direction];
+      if (clusterOf(cell) != cluster)
+        return -1;
+      if (offset + length < path.length)
+        path[offset + length] = cell;
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * Marks the cells on both sides of each entrance on the right and bottom borders of a cluster as nodes,
+   * and on the left and top borders, which are the right and bottom borders of its neighbors
+   */
+  private void markEntrances(int cluster)
+  {
+    int top = (cluster / clusterCols) * clusterSize;
+    int left = (cluster % clusterCols) * clusterSize;
+    int bottom = Math.min(height, top + clusterSize);
+    int right = Math.min(width, left + clusterSize);
+
+    if (right < width)
+      markBorder(top, right - 1, bottom - top, Ruleset.DOWN, Ruleset.RIGHT);
+    if (bottom < height)
+      markBorder(bottom - 1, left, right - left, Ruleset.RIGHT, Ruleset.DOWN);
+    if (left > 0)
+      markBorder(top, left - 1, bottom - top, Ruleset.DOWN, Ruleset.RIGHT);
+    if (top > 0)
+      markBorder(top - 1, left, right - left, Ruleset.RIGHT, Ruleset.DOWN);
+  }
+
+  /**
+   * Marks the entrances along one border, given by its first cell on the near side
+   * @param along the direction the border runs in
+   * @param across the direction from the near side of the border to the far side
+   */
+  private void markBorder(int row, int col, int length, int along, int across)
+  {
+    int first = row * width + col;
+    int step = offsets[along];
+    int runStart = -1;
+    for (int i = 0; i <= length; i++)
+    {
+      int cell = first + i * step;
+      boolean crossing = i < length && (walkability.getSides(cell) & (1 << across)) != 0;
+
+      // the run goes on only if the last cell of it can be walked to this one on both sides
+      int last = cell - step;
+      boolean joined = crossing && runStart >= 0 && (walkability.getSides(last) & (1 << along)) != 0
+                       && (walkability.getSides(last + offsets[across]) & (1 << along)) != 0;
+      if (runStart >= 0 && !joined)
+      {
+        int runEnd = i - 1;
+        if (runEnd - runStart + 1 >= LONG_ENTRANCE)
+        {
+          mark(first + runStart * step, across);
+          mark(first + runEnd * step, across);
+        }
+        else
+        {
+          mark(first + ((runStart + runEnd) / 2) * step, across);
+        }
+        runStart = -1;
+      }
+      if (crossing && runStart < 0)
+        runStart = i;
+    }
+  }
+
+  /**
+   * Marks a cell, and the cell across the border from it, as nodes
+   */
+  private void mark(int cell, int across)
+  {
+    nodeIndex[cell] = 0;
+    nodeIndex[cell + offsets[across]] = 0;
+  }
+
+  /**
+   * Unmarks every cell of a cluster
+   */
+  private void clearMarks(int cluster)
+  {
+    int top = (cluster / clusterCols) * clusterSize;
+    int left = (cluster % clusterCols) * clusterSize;
+    int bottom = Math.min(height, top + clusterSize);
+    int right = Math.min(width, left + clusterSize);
+    for (int row = top; row < bottom; row++)
+    {
+      for (int col = left; col < right; col++)
+      {
+        nodeIndex[row * width + col] = -1;
+      }
+    }
+  }
+
+  /**
+   * Numbers a cluster's nodes, and searches the paths to them again if its cells or its nodes changed
+   * @param cellsChanged true if the cells of the cluster changed, not just its nodes
+   */
+  private void rebuild(int cluster, boolean cellsChanged)
+  {
+    int top = (cluster / clusterCols) * clusterSize;
+    int left = (cluster % clusterCols) * clusterSize;
+    int bottom = Math.min(height, top + clusterSize);
+    int right = Math.min(width, left + clusterSize);
+
+    int count = 0;
+    for (int row = top; row < bottom; row++)
+    {
+      for (int col = left; col < right; col++)
+      {
+        if (nodeIndex[row * width + col] >= 0)
+          count++;
+      }
+    }
+    int[] cells = new int[count];
+    count = 0;
+    for (int row = top; row < bottom; row++)
+    {
+      for (int col = left; col < right; col++)
+      {
+        int cell = row * width + col;
+        if (nodeIndex[cell] >= 0)
+        {
+          nodeIndex[cell] = count;
+          cells[count++] = cell;
+        }
+      }
+    }
+    if (!cellsChanged && Arrays.equals(cells, nodes[cluster]))
+      return;
+
+    rebuilds++;
+    nodes[cluster] = cells;
+    distances[cluster] = new int[count * count];
+    towards[cluster] = new int[count][];
+    for (int i = 0; i < count; i++)
+    {
+      towards[cluster][i] = new int[localTowards.length];
+      searchCluster(cells[i], towards[cluster][i]);
+      for (int j = 0; j < count; j++)
+      {
+        distances[cluster][i * count + j] = localCostOf(cells[j]);
+      }
+    }
+  }
+
+  /**
+   * Numbers the nodes of a cluster that was not rebuilt again, as they were before its cells were unmarked
+   */
+  private void restoreIndices(int cluster)
+  {
+    int[] cells = nodes[cluster];
+    for (int i = 0; i < cells.length; i++)
+    {
+      nodeIndex[cells[i]] = i;
+    }
+  }
+
+  /**
+   * Makes the buffers of a query big enough for the most nodes in a cluster, and in the whole grid
+   */
+  private void sizeBuffers()
+  {
+    int total = 0;
+    int maxNodes = 0;
+    for (int[] cells : nodes)
+    {
+      total += cells.length;
+      maxNodes = Math.max(maxNodes, cells.length);
+    }
+    if (startCosts == null || startCosts.length < maxNodes)
+    {
+      startCosts = new int[maxNodes];
+      goalCosts = new int[maxNodes];
+    }
+    if (waypoints == null || waypoints.length < total + 2)
+      waypoints = new int[total + 2];
+  }
+
+  /**
+   * Determines if any cell of a cluster can be moved out of differently than before
+   */
+  private boolean hasChanged(int cluster, Walkability old)
+  {
+    int top = (cluster / clusterCols) * clusterSize;
+    int left = (cluster % clusterCols) * clusterSize;
+    int bottom = Math.min(height, top + clusterSize);
+    int right = Math.min(width, left + clusterSize);
+    for (int row = top; row < bottom; row++)
+    {
+      for (int col = left; col < right; col++)
+      {
+        int cell = row * width + col;
+        if (walkability.getSides(cell) != old.getSides(cell))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Searches the cells of a cell's cluster breadth first from it, without leaving the cluster
+   * @param source the grid index of the cell
+   * @param steps if not null, filled with the direction of the step towards the source out of each cell reached
+   */
+  private void searchCluster(int source, int[] steps)
+  {
+    if (++localSearch == 0)
+    {
+      Arrays.fill(localStamp, 0);
+      localSearch = 1;
+    }
+    int sourceRow = source / width;
+    int sourceCol = source % width;
+    int top = sourceRow - sourceRow % clusterSize;
+    int left = sourceCol - sourceCol % clusterSize;
+    int bottom = Math.min(height, top + clusterSize);
+    int right = Math.min(width, left + clusterSize);
+
+    int local = localIndex(source);
+    localStamp[local] = localSearch;
+    localCost[local] = 0;
+    localQueue[0] = source;
+    int head = 0;
+    int tail = 1;
+    while (head < tail)
+    {
+      int cell = localQueue[head++];
+      int row = cell / width;
+      int col = cell - row * width;
+      int next = localCost[localIndex(cell)] + 1;
+      int sides = walkability.getSides(cell);
+      for (int direction = 0; direction < 4; direction++)
+      {
+        int otherRow = row + ROW_STEPS[direction];
+        int otherCol = col + COL_STEPS[direction];
+        if ((sides & (1 << direction)) == 0 || otherRow < top || otherRow >= bottom || otherCol < left || otherCol >= right)
+          continue;
+
+        int other = cell + offsets[direction];
+        int otherLocal = localIndex(other);
+        if (localStamp[otherLocal] == localSearch)
+          continue;
+        localStamp[otherLocal] = localSearch;
+        localCost[otherLocal] = next;
+        localQueue[tail++] = other;
+        if (steps != null)
+          setStep(steps, otherLocal, Ruleset.opposite(direction));
+      }
+    }
+  }
+
+  /**
+   * Returns the length of the path to a cell found by the latest search within a cluster
+   * @return the number of steps, or -1 if it was not reached
+   */
+  private int localCostOf(int cell)
+  {
+    int local = localIndex(cell);
+    return localStamp[local] == localSearch ? localCost[local] : -1;
+  }
+
+  /**
+   * Copies the lengths of the paths to a cluster's nodes found by the latest search within it
+   */
+  private void costsToNodes(int cluster, int[] costs)
+  {
+    int[] cells = nodes[cluster];
+    for (int i = 0; i < cells.length; i++)
+    {
+      costs[i] = localCostOf(cells[i]);
+    }
+  }
+
+  private static int getStep(int[] steps, int local)
+  {
+    return (steps[local >>> 4] >>> ((local & 15) << 1)) & 3;
+  }
+
+  private static void setStep(int[] steps, int local, int direction)
+  {
+    int shift = (local & 15) << 1;
+    steps[local >>> 4] = (steps[local >>> 4] & ~(3 << shift)) | (direction << shift);
+  }
+
+  /**
+   * Returns the index of a cell within its cluster, row * clusterSize + col within it
+   */
+  private int localIndex(int cell)
+  {
+    return ((cell / width) % clusterSize) * clusterSize + (cell % width) % clusterSize;
+  }
+
+  private int clusterOf(int cell)
+  {
+    return ((cell / width) / clusterSize) * clusterCols + (cell % width) / clusterSize;
+  }
+
+  /**
+   * Returns the cluster on one side of another cluster
+   * @return the index of the neighbor, or -1 if the cluster is on that edge of the grid
+   */
+  private int neighborCluster(int cluster, int direction)
+  {
+    int row = cluster / clusterCols + ROW_STEPS[direction];
+    int col = cluster % clusterCols + COL_STEPS[direction];
+    if (row < 0 || row >= clusterRows || col < 0 || col >= clusterCols)
+      return -1;
+    return row * clusterCols + col;
+  }
+}
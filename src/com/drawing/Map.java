@@ -3,7 +3,10 @@
 
 package com.drawing;
 
+import java.nio.IntBuffer;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 import javax.media.opengl.GL2;
 import com.jogamp.opengl.util.texture.Texture;
 
@@ -11,6 +14,7 @@ import java.io.IOException;
 import java.io.FileWriter;
 import java.io.File;
 import java.io.FileNotFoundException;  
+import java.nio.file.Files;
 import java.util.Scanner;
 
 public class Map implements GShape
@@ -25,8 +29,58 @@ public class Map implements GShape
   
   private WaveFunction wf;
   private int[][] edgeData;
+  private int[] rotationData;
+  private int[] weights;
   private int[][] mapping;
   private int[][] wfValues;
+  
+  // when set, the map is an unbounded world of generated chunks instead of wfValues,
+  // its dropped chunks written to a temporary directory that goes when the world does
+  private ChunkedWorld world;
+  private File worldDirectory;
+  
+  // the walkability of wfValues, compiled the first time it is asked for after they change
+  private Walkability walkability;
+  private int[][] walkabilityValues;
+  private int[][] walkabilityEdges;
+  
+  // The player starts in the top left corner of a maze, so its tile has to open to the right or downwards,
+  // and every other open tile has to be reachable from it. The path set is open almost everywhere and goes without
+  private static final Constraints MAZE_CONSTRAINTS = new Constraints().connected().allow(0, 0, 1, 1, new Predicate<State>()
+  {
+    public boolean test(State state)
+    {
+      return (state.getEdge(1)&2) == 0 || (state.getEdge(2)&2) == 0;
+    }
+  });
+
+  // the tiles of the path set and the maze set. Every map of a set shares them, so they are never changed
+  private static final int[][] EDGE_DATA_PATH = {{0, 0, 0, 0}, 
+      {2, 0, 0, 0}, 
+      {0, 2, 0, 2}, 
+      {2, 2, 0, 0}, 
+      {2, 2, 2, 0}, 
+      {2, 2, 2, 2}};
+  private static final int[] ROTATION_DATA_PATH = {1, 4, 2, 4, 4, 1};
+  private static final int[] WEIGHTS_PATH = {100, 1, 3, 3, 3, 1};
+  
+  private static final int[][] EDGE_DATA_MAZE = {{7, 7, 7, 7}, 
+      {5, 7, 7, 7}, 
+      {5, 7, 5, 7},
+      {5, 5, 7, 7},
+      {4, 1, 7, 7},
+      {5, 5, 7, 5},
+      {0, 1, 7, 4},
+      {5, 5, 5, 5},
+      {0, 0, 0, 0},
+      {5, 4, 0, 1},
+      {4, 0, 0, 1},
+      {4, 1, 5, 7},
+      {5, 4, 1, 7},
+      {5, 5, 4, 1},
+      {4, 1, 4, 1}};
+  private static final int[] ROTATION_DATA_MAZE = {1, 4, 2, 4, 4, 4, 4, 1, 1, 4, 4, 4, 4, 4, 2};
+  private static final int[] WEIGHTS_MAZE =       {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0};
 
   // default "null" constructor
   public Map(final GL2 gl, float vertex2f[], boolean doMazeSet, int displayRows, int displayCols)
@@ -66,6 +120,17 @@ public class Map implements GShape
     this.runWaveFunction(sizeData[2], sizeData[3]);
   }
   
+  // Constructor for a map with nothing to display, only its generated grid, so it can be made without a GL context
+  public Map(boolean doMazeSet, int numRows, int numCols)
+  {
+    this.vertex2f = new float[4];
+    
+    grid = new Tile[0][0];
+    
+    this.loadWaveFunction(doMazeSet, numRows, numCols);
+    this.runWaveFunction(numRows, numCols);
+  }
+  
   private void loadTextures(final GL2 gl, boolean doMazeSet)
   {
     String textureNameStub;
@@ -105,20 +170,34 @@ public class Map implements GShape
     }
   }
   
+  // The value of a tile, from the chunked world if there is one
+  private int valueAt(int row, int col)
+  {
+    if (world != null)
+    {
+      return world.getValue(row, col);
+    }
+    return wfValues[row][col];
+  }
+  
   private void fixTextures()
   {
     // To ensure that I don't check over the boundary of either matrix, wfValues or the grid of Tiles
     int row = displayRows, col = displayCols;
-    int numRows = wfValues.length, numCols = wfValues[0].length;
-    
-    if (numRows < displayRows)
-    {
-      row = numRows;
-    }
     
-    if (numCols < displayCols)
+    if (world == null)
     {
-      col = numCols;
+      int numRows = wfValues.length, numCols = wfValues[0].length;
+      
+      if (numRows < displayRows)
+      {
+        row = numRows;
+      }
+      
+      if (numCols < displayCols)
+      {
+        col = numCols;
+      }
     }
     
     for (int i = 0; i < row; i++)
@@ -128,16 +207,25 @@ public class Map implements GShape
         int r = rowShift + i;
         int c = colShift + j;
         
-        int value = wfValues[r][c]; // written out for readability
-        grid[i][j].setTexture(tileTextures[mapping[value][0]]);
-        grid[i][j].setEdgeDataRef(mapping[value][0]);
-        grid[i][j].setRotation(mapping[value][1]);
+        int value = valueAt(r, c); // written out for readability
+        
+        // a tile of a failed chunk was never generated, it shows as the first tile
+        int tile = value < 0 ? 0 : mapping[value][0];
+        int rotation = value < 0 ? 0 : mapping[value][1];
+        grid[i][j].setTexture(tileTextures[tile]);
+        grid[i][j].setEdgeDataRef(tile);
+        grid[i][j].setRotation(rotation);
       }
     }
   }
   
   public boolean shiftRowFocus(int n)
   {
+    if (world != null)
+    {
+      return this.shiftWorldFocus(n, 0);
+    }
+    
     int test = focusRow + n;
     int temp = rowShift;
     int maxRowShift = wfValues.length - displayRows;
@@ -167,6 +255,11 @@ public class Map implements GShape
   
   public boolean shiftColFocus(int n)
   {
+    if (world != null)
+    {
+      return this.shiftWorldFocus(0, n);
+    }
+    
     int test = focusCol + n;
     int temp = colShift;
     int maxColShift = wfValues[0].length - displayCols;
@@ -201,68 +294,186 @@ public class Map implements GShape
     
   }
   
+  // Like shiftRowFocus and shiftColFocus, but the world has no edges, so the focus stays in the middle of the display
+  private boolean shiftWorldFocus(int rows, int cols)
+  {
+    int tempRow = rowShift, tempCol = colShift;
+    
+    focusRow += rows;
+    focusCol += cols;
+    this.centerWorldFocus();
+    
+    world.setFocus(focusRow, focusCol);
+    this.fixTextures();
+    
+    return rowShift != tempRow || colShift != tempCol;
+  }
+  
+  private void centerWorldFocus()
+  {
+    rowShift = focusRow + 1 - (displayRows + 1)/ 2;
+    colShift = focusCol + 1 - (displayCols + 1)/ 2;
+  }
+  
+  // Where the focus is on the display, as a row and a column of the grid of Tiles
+  public int getFocusDisplayRow()
+  {
+    return focusRow - rowShift;
+  }
+  
+  public int getFocusDisplayCol()
+  {
+    return focusCol - colShift;
+  }
+  
   public void loadWaveFunction(boolean doMazeSet, int numRows, int numCols)
   {
-    int[] rotationData;
-    int[] weights;
+    this.loadTileset(doMazeSet);
     
-    if (!doMazeSet)
+    // the last wave function is reset in place if the tileset and size are unchanged
+    this.wf = WaveFunction.reuse(this.wf, numCols, numRows, edgeData, rotationData, weights);
+  }
+
+  
+  // Chooses the edge data, rotations and weights of the path or maze set
+  private void loadTileset(boolean doMazeSet)
+  {
+    edgeData = doMazeSet ? EDGE_DATA_MAZE : EDGE_DATA_PATH;
+    rotationData = doMazeSet ? ROTATION_DATA_MAZE : ROTATION_DATA_PATH;
+    weights = doMazeSet ? WEIGHTS_MAZE : WEIGHTS_PATH;
+  }
+  
+  // Returns a copy of the edge data of the path or maze set, up, right, down and left for each tile
+  public static int[][] getTilesetEdgeData(boolean doMazeSet)
+  {
+    int[][] tiles = doMazeSet ? EDGE_DATA_MAZE : EDGE_DATA_PATH;
+    int[][] copy = new int[tiles.length][];
+    for (int i = 0; i < tiles.length; i++)
     {
-      int[][] edgeDataPath = {{0, 0, 0, 0}, 
-          {2, 0, 0, 0}, 
-          {0, 2, 0, 2}, 
-          {2, 2, 0, 0}, 
-          {2, 2, 2, 0}, 
-          {2, 2, 2, 2}};
-      int[] rotationDataPath = {1, 4, 2, 4, 4, 1};
-      int[] weightsPath = {100, 1, 3, 3, 3, 1};
-      
-      edgeData = edgeDataPath;
-      rotationData = rotationDataPath;
-      weights = weightsPath;
+      copy[i] = Arrays.copyOf(tiles[i], tiles[i].length);
     }
-    else
+    return copy;
+  }
+  
+  // Returns a copy of the number of rotations of each tile of the path or maze set
+  public static int[] getTilesetRotationData(boolean doMazeSet)
+  {
+    int[] rotations = doMazeSet ? ROTATION_DATA_MAZE : ROTATION_DATA_PATH;
+    return Arrays.copyOf(rotations, rotations.length);
+  }
+  
+  // Returns a copy of the weight of each tile of the path or maze set
+  public static int[] getTilesetWeights(boolean doMazeSet)
+  {
+    int[] tileWeights = doMazeSet ? WEIGHTS_MAZE : WEIGHTS_PATH;
+    return Arrays.copyOf(tileWeights, tileWeights.length);
+  }
+  
+  // Starts generating a new map on the generator's thread. The current map stays up until applyGeneratedMap
+  public CompletableFuture<MapGenerator.GeneratedMap> generateInBackground(MapGenerator generator, boolean doMazeSet, 
+                                                                          int numRows, int numCols)
+  {
+    this.loadTileset(doMazeSet);
+    return generator.submit(numRows, numCols, edgeData, rotationData, weights, doMazeSet ? MAZE_CONSTRAINTS : null);
+  }
+  
+  // Keeps a number of maps of the path or maze set, at a size, generated ahead of time in a pool
+  public void configurePool(MapPool pool, boolean doMazeSet, int numRows, int numCols, int size)
+  {
+    this.loadTileset(doMazeSet);
+    pool.configure(doMazeSet ? "maze" : "path", numRows, numCols, edgeData, rotationData, weights,
+                   doMazeSet ? MAZE_CONSTRAINTS : null, size);
+  }
+  
+  // Takes a map generated ahead of time from a pool, or null if none is ready, to swap in with applyGeneratedMap
+  public MapGenerator.GeneratedMap pollPool(MapPool pool, boolean doMazeSet, int numRows, int numCols)
+  {
+    this.loadTileset(doMazeSet);
+    return pool.poll(doMazeSet ? "maze" : "path", numRows, numCols);
+  }
+  
+  // Swaps in a map from generateInBackground or pollPool. Only call it from the thread that renders
+  public void applyGeneratedMap(MapGenerator.GeneratedMap generated)
+  {
+    this.closeChunkedWorld();
+    this.mapping = generated.getMapping();
+    this.wfValues = generated.getValues();
+    
+    focusRow = 0;
+    focusCol = 0;
+    rowShift = 0;
+    colShift = 0;
+    this.fixTextures();
+  }
+  
+  // Replaces the map with an unbounded world, generated chunk by chunk around the focus
+  public void loadChunkedWorld(boolean doMazeSet, int chunkSize, long seed)
+  {
+    this.loadTileset(doMazeSet);
+    this.closeChunkedWorld();
+    
+    try
     {
-      int[][] edgeDataMaze = {{7, 7, 7, 7}, 
-          {5, 7, 7, 7}, 
-          {5, 7, 5, 7},
-          {5, 5, 7, 7},
-          {4, 1, 7, 7},
-          {5, 5, 7, 5},
-          {0, 1, 7, 4},
-          {5, 5, 5, 5},
-          {0, 0, 0, 0},
-          {5, 4, 0, 1},
-          {4, 0, 0, 1},
-          {4, 1, 5, 7},
-          {5, 4, 1, 7},
-          {5, 5, 4, 1},
-          {4, 1, 4, 1}};
-      int[] rotationDataMaze = {1, 4, 2, 4, 4, 4, 4, 1, 1, 4, 4, 4, 4, 4, 2};
-      int[] weightsMaze =      {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0};
-      
-      edgeData = edgeDataMaze;
-      rotationData = rotationDataMaze;
-      weights = weightsMaze;
+      worldDirectory = Files.createTempDirectory("world").toFile();
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+      worldDirectory = null;
+    }
+    
+    // 2 chunks of look-ahead keeps a 9x9 view covered, 49 chunks are held before the farthest are dropped to disk
+    this.world = new ChunkedWorld(chunkSize, edgeData, rotationData, weights, seed, 2, 49, worldDirectory);
+    this.mapping = world.getMapping();
+    
+    focusRow = 0;
+    focusCol = 0;
+    this.centerWorldFocus();
+    world.setFocus(0, 0);
+    this.fixTextures();
+  }
+  
+  private void closeChunkedWorld()
+  {
+    if (world != null)
+    {
+      world.shutdown();
+      world = null;
+    }
+    if (worldDirectory != null)
+    {
+      File[] files = worldDirectory.listFiles();
+      if (files != null)
+      {
+        for (File file : files)
+        {
+          file.delete();
+        }
+      }
+      worldDirectory.delete();
+      worldDirectory = null;
     }
-    this.wf = new WaveFunction(numCols, numRows, edgeData, rotationData, weights);
   }
   
   public void runWaveFunction(int numRows, int numCols)
   {
+    this.closeChunkedWorld();
     this.wf.collapse();
-    
+    this.finishWaveFunction(numRows, numCols);
+  }
+  
+  private void finishWaveFunction(int numRows, int numCols)
+  {
     this.mapping = this.wf.getMapping();
     
     wfValues = new int[numRows][numCols];
     
+    // the rows are read straight out of the wave function's collapsed values
+    IntBuffer values = this.wf.getGridView();
     for (int i = 0; i < numRows; i++)
     {
-      for (int j = 0; j < numCols; j++)
-      {
-        int gridIndex = j+i*numCols;
-        wfValues[i][j] = this.wf.getSuperpositionValue(gridIndex);
-      }
+      values.get(wfValues[i]);
     }
     
     focusRow = 0;
@@ -274,7 +485,12 @@ public class Map implements GShape
   
   public int[] getEdgeData(int row, int col)
   {
-    int value = wfValues[row][col];
+    int value = valueAt(row, col);
+    if (value < 0)
+    {
+      // walled on every side, as a Walkability sees a tile that was never generated
+      return new int[] {2, 2, 2, 2};
+    }
     int edgeRef = mapping[value][0];
     int rotation = mapping[value][1];
     
@@ -293,8 +509,31 @@ public class Map implements GShape
     return getEdgeData(focusRow, focusCol);
   }
   
+  // Which way a character can move out of each tile, for a PathFinder. Null for a chunked world, which has no end
+  // wfValues is replaced rather than changed whenever a new map is made or loaded, so the same array means the same map
+  public Walkability getWalkability()
+  {
+    if (world != null || wfValues == null)
+    {
+      return null;
+    }
+    if (walkability == null || walkabilityValues != wfValues || walkabilityEdges != edgeData)
+    {
+      walkability = Walkability.compile(wfValues, mapping, edgeData);
+      walkabilityValues = wfValues;
+      walkabilityEdges = edgeData;
+    }
+    return walkability;
+  }
+  
   public boolean saveToFile(String filename)
   {
+    if (world != null)
+    {
+      System.out.println("A chunked world cannot be saved to a single file.");
+      return false;
+    }
+    
     try 
     {
       FileWriter saveFile = new FileWriter(filename);
@@ -386,6 +625,7 @@ public class Map implements GShape
       }
       scan.close();
       
+      this.closeChunkedWorld();
       this.loadWaveFunction(true, r, c);
       rowShift = 0;
       colShift = 0;
@@ -0,0 +1,200 @@
+package com.drawing;
+import java.nio.IntBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The MapGenerator class generates maps on a background thread of its own, so the threads that draw and take input never wait on a WaveFunction.
+ *
+ * Each map is handed back through a CompletableFuture holding only plain arrays, which the generator never touches again,
+ * so the map can be swapped in by the thread that renders without sharing anything with the generator.
+ * Submitting a map cancels the one before it, which stops at its next slice of work.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class MapGenerator
+{
+  private static final int GENERATION_ATTEMPTS = 3;
+
+  // how long the generator works between checks for cancellation
+  private static final long SLICE_MICROS = 5000;
+
+  // each thread keeps the last WaveFunction it generated with, to reuse for the next map of the same kind
+  private static final ThreadLocal<WaveFunction> reusable = new ThreadLocal<WaveFunction>();
+
+  private final ExecutorService executor;
+  private final SplittableRandom random = new SplittableRandom();
+  private CompletableFuture<GeneratedMap> current;
+
+  /**
+   * A generated map
+   */
+  public static class GeneratedMap
+  {
+    private int[][] values;
+    private int[][] mapping;
+    private boolean failed;
+
+    GeneratedMap(int[][] values, int[][] mapping, boolean failed)
+    {
+      this.values = values;
+      this.mapping = mapping;
+      this.failed = failed;
+    }
+
+    /**
+     * Returns the State index of every tile, by row and column
+     * @return a matrix of State indices
+     */
+    public int[][] getValues()
+    {
+      return values;
+    }
+
+    /**
+     * Returns the mapping of State indices to their original reference value and the number of rotations
+     * @return an integer array of 2-tuples, as WaveFunction.getMapping
+     */
+    public int[][] getMapping()
+    {
+      return mapping;
+    }
+
+    /**
+     * Determines if every attempt at the map failed, leaving tiles of -1
+     * @return true if the map could not be generated
+     */
+    public boolean isFailed()
+    {
+      return failed;
+    }
+  }
+
+  /**
+   * A MapGenerator constructor, starting its background thread
+   */
+  public MapGenerator()
+  {
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+      public Thread newThread(Runnable runnable)
+      {
+        Thread thread = new Thread(runnable, "MapGenerator");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Starts generating a map on the background thread, cancelling the map submitted before it
+   * @param numRows the number of rows of the map
+   * @param numCols the number of columns of the map
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @return the future map, completed on the background thread
+   */
+  public CompletableFuture<GeneratedMap> submit(int numRows, int numCols, int[][] edgeData, int[] rotationSymmetry, int[] weights)
+  {
+    return submit(numRows, numCols, edgeData, rotationSymmetry, weights, null);
+  }
+
+  /**
+   * Starts generating a map with some of its cells constrained on the background thread, cancelling the map submitted before it
+   * @param numRows the number of rows of the map
+   * @param numCols the number of columns of the map
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param constraints what the cells of the map may become, or null for no constraints
+   * @return the future map, completed on the background thread
+   */
+  public synchronized CompletableFuture<GeneratedMap> submit(final int numRows, final int numCols,
+                                                             final int[][] edgeData, final int[] rotationSymmetry, final int[] weights,
+                                                             final Constraints constraints)
+  {
+    cancel();
+
+    final CompletableFuture<GeneratedMap> future = new CompletableFuture<GeneratedMap>();
+    final long seed = random.nextLong();
+    executor.execute(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          GeneratedMap map = generate(future, numRows, numCols, edgeData, rotationSymmetry, weights, constraints, seed);
+          if (map != null)
+            future.complete(map);
+        }
+        catch (RuntimeException e)
+        {
+          future.completeExceptionally(e);
+        }
+      }
+    });
+    current = future;
+    return future;
+  }
+
+  /**
+   * Cancels the map being generated, if any
+   */
+  public synchronized void cancel()
+  {
+    if (current != null)
+    {
+      current.cancel(false);
+      current = null;
+    }
+  }
+
+  /**
+   * Stops the background thread. The generator cannot generate maps afterwards
+   */
+  public void shutdown()
+  {
+    cancel();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Generates a map a slice at a time, giving up as soon as it is cancelled
+   * @param future the future the map is for, or null if it cannot be cancelled
+   * @param constraints what the cells of the map may become, or null for no constraints
+   * @return the map, or null if it was cancelled
+   */
+  static GeneratedMap generate(CompletableFuture<GeneratedMap> future, int numRows, int numCols,
+                               int[][] edgeData, int[] rotationSymmetry, int[] weights, Constraints constraints, long seed)
+  {
+    WaveFunction wf = reusable.get();
+    for (int attempt = 0; attempt < GENERATION_ATTEMPTS; attempt++)
+    {
+      wf = WaveFunction.reuse(wf, numCols, numRows, edgeData, rotationSymmetry, weights, seed + attempt);
+      reusable.set(wf);
+      // no other seed can meet constraints that fail before anything is chosen
+      if (constraints != null && !wf.constrain(constraints))
+        break;
+      while (!wf.collapseStep(Integer.MAX_VALUE, SLICE_MICROS))
+      {
+        if (future != null && future.isCancelled())
+          return null;
+      }
+      if (!wf.isFailed())
+        break;
+    }
+
+    int[][] values = new int[numRows][numCols];
+    IntBuffer grid = wf.getGridView();
+    for (int i = 0; i < numRows; i++)
+    {
+      grid.get(values[i]);
+    }
+    return new GeneratedMap(values, wf.getMapping(), wf.isFailed());
+  }
+}
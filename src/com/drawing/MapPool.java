@@ -0,0 +1,230 @@
+package com.drawing;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The MapPool class keeps a few maps of each configured tileset and size generated ahead of time,
+ * so starting a new map is a single poll instead of a whole WaveFunction collapse.
+ *
+ * Every kind of map has its own bounded queue, topped up by low priority background threads whenever a map is taken from it.
+ * A poll never waits: when the queue is empty it counts a miss and returns null, leaving the caller to generate the map itself.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class MapPool
+{
+  private final HashMap<String, Pool> pools = new HashMap<String, Pool>();
+  private final ExecutorService workers;
+  private final SplittableRandom random = new SplittableRandom();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * The ready maps of one tileset and size
+   */
+  private class Pool
+  {
+    private int numRows;
+    private int numCols;
+    private int[][] edgeData;
+    private int[] rotationSymmetry;
+    private int[] weights;
+    private Constraints constraints;
+    private int size;
+    private ArrayBlockingQueue<MapGenerator.GeneratedMap> ready;
+    private AtomicInteger generating = new AtomicInteger();
+
+    Pool(int numRows, int numCols, int[][] edgeData, int[] rotationSymmetry, int[] weights, Constraints constraints, int size)
+    {
+      this.numRows = numRows;
+      this.numCols = numCols;
+      this.edgeData = new int[edgeData.length][];
+      for (int i = 0; i < edgeData.length; i++)
+      {
+        this.edgeData[i] = Arrays.copyOf(edgeData[i], edgeData[i].length);
+      }
+      this.rotationSymmetry = Arrays.copyOf(rotationSymmetry, rotationSymmetry.length);
+      this.weights = Arrays.copyOf(weights, weights.length);
+      this.constraints = constraints;
+      this.size = Math.max(1, size);
+      this.ready = new ArrayBlockingQueue<MapGenerator.GeneratedMap>(this.size);
+    }
+
+    /**
+     * Starts generating as many maps as the queue is short of, counting the ones already being generated
+     */
+    void topUp()
+    {
+      while (true)
+      {
+        int count = generating.get();
+        if (ready.size() + count >= size || workers.isShutdown())
+          return;
+        if (!generating.compareAndSet(count, count + 1))
+          continue;
+
+        final long seed = nextSeed();
+        workers.execute(new Runnable()
+        {
+          public void run()
+          {
+            try
+            {
+              MapGenerator.GeneratedMap map = MapGenerator.generate(null, numRows, numCols, edgeData, rotationSymmetry, weights, constraints, seed);
+              if (!map.isFailed())
+                ready.offer(map);
+            }
+            finally
+            {
+              generating.decrementAndGet();
+            }
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * A MapPool constructor
+   * @param threads the number of background threads generating maps
+   */
+  public MapPool(int threads)
+  {
+    this.workers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+    {
+      public Thread newThread(Runnable runnable)
+      {
+        // the pool only uses cores the game leaves idle
+        Thread thread = new Thread(runnable, "MapPool");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+  }
+
+  private static String key(String tileset, int numRows, int numCols)
+  {
+    return tileset + ":" + numRows + "x" + numCols;
+  }
+
+  private synchronized long nextSeed()
+  {
+    return random.nextLong();
+  }
+
+  /**
+   * Keeps a number of maps of a tileset and size ready, starting to generate them right away.
+   * Configuring the same tileset and size again replaces its maps
+   * @param tileset the name the tileset is polled by
+   * @param numRows the number of rows of the maps
+   * @param numCols the number of columns of the maps
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param size the number of maps to keep ready
+   */
+  public void configure(String tileset, int numRows, int numCols, int[][] edgeData, int[] rotationSymmetry, int[] weights, int size)
+  {
+    configure(tileset, numRows, numCols, edgeData, rotationSymmetry, weights, null, size);
+  }
+
+  /**
+   * Keeps a number of maps of a tileset and size ready, with some of their cells constrained, starting to generate them right away.
+   * Configuring the same tileset and size again replaces its maps
+   * @param tileset the name the tileset is polled by
+   * @param numRows the number of rows of the maps
+   * @param numCols the number of columns of the maps
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param constraints what the cells of the maps may become, or null for no constraints
+   * @param size the number of maps to keep ready
+   */
+  public void configure(String tileset, int numRows, int numCols, int[][] edgeData, int[] rotationSymmetry, int[] weights,
+                        Constraints constraints, int size)
+  {
+    Pool pool = new Pool(numRows, numCols, edgeData, rotationSymmetry, weights, constraints, size);
+    synchronized (pools)
+    {
+      pools.put(key(tileset, numRows, numCols), pool);
+    }
+    pool.topUp();
+  }
+
+  /**
+   * Takes a ready map of a tileset and size, and starts generating another to replace it
+   * @param tileset the name the tileset was configured with
+   * @param numRows the number of rows of the map
+   * @param numCols the number of columns of the map
+   * @return a generated map, or null if none was ready or the tileset and size were never configured
+   */
+  public MapGenerator.GeneratedMap poll(String tileset, int numRows, int numCols)
+  {
+    Pool pool;
+    synchronized (pools)
+    {
+      pool = pools.get(key(tileset, numRows, numCols));
+    }
+
+    MapGenerator.GeneratedMap map = pool == null ? null : pool.ready.poll();
+    if (map == null)
+      misses.incrementAndGet();
+    else
+      hits.incrementAndGet();
+
+    if (pool != null)
+      pool.topUp();
+    return map;
+  }
+
+  /**
+   * Returns the number of maps ready for a tileset and size
+   * @param tileset the name the tileset was configured with
+   * @param numRows the number of rows of the maps
+   * @param numCols the number of columns of the maps
+   * @return the number of ready maps
+   */
+  public int getAvailable(String tileset, int numRows, int numCols)
+  {
+    synchronized (pools)
+    {
+      Pool pool = pools.get(key(tileset, numRows, numCols));
+      return pool == null ? 0 : pool.ready.size();
+    }
+  }
+
+  /**
+   * Returns the number of polls that found a ready map
+   * @return the number of hits
+   */
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of polls that found no ready map
+   * @return the number of misses
+   */
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  /**
+   * Stops the background threads. The maps already ready can still be polled
+   */
+  public void shutdown()
+  {
+    workers.shutdownNow();
+  }
+}
@@ -0,0 +1,287 @@
+package com.drawing;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The ParallelCollapse class collapses a single large WaveFunction grid on several cores by splitting it into square blocks.
+ *
+ * The blocks are collapsed in three rounds, all the blocks of a round at the same time:
+ * first the blocks in even rows and even columns, which never share an edge, without any constraint between them;
+ * then the blocks in even rows and odd columns or odd rows and even columns, which only touch blocks of the first round,
+ * with their border cells restricted to the States that fit them; and last the blocks in odd rows and odd columns,
+ * widened by just under half a block on every side. Widening them moves the cells where two independently collapsed
+ * blocks meet into the inside of the last round, and moves its border onto cells that already agree with each other.
+ * A region that still cannot fit its neighbors is collapsed again afterwards with a band of the cells around it,
+ * widening the band until the seam can be closed, so the whole grid follows the adjacency rules of its States.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class ParallelCollapse
+{
+  private static final int MAX_SEAM_ATTEMPTS = 4;
+
+  private WaveFunction wf;
+  private int width;
+  private int height;
+  private int blockSize;
+  private Ruleset rules;
+  private GridStorage values;
+  private long[] seeds;
+  private boolean[] unfitted;  // for each block, row by row, true if its region could not fit its neighbors
+  private int blockCols;
+  private boolean failed;
+
+  /**
+   * A ParallelCollapse constructor
+   * @param wf the WaveFunction whose grid to collapse
+   * @param blockSize the number of rows and columns of each block
+   */
+  public ParallelCollapse(WaveFunction wf, int blockSize)
+  {
+    this.wf = wf;
+    this.width = wf.width;
+    this.height = wf.height;
+    this.blockSize = Math.max(1, blockSize);
+    this.rules = wf.getRules();
+  }
+
+  /**
+   * Collapses the grid of the WaveFunction, using the threads of a pool for the blocks
+   * @param pool the pool to collapse the blocks on
+   * @return false if some part of the grid could not be collapsed
+   */
+  public boolean collapse(ForkJoinPool pool)
+  {
+    int blockRows = (height + blockSize - 1) / blockSize;
+    blockCols = (width + blockSize - 1) / blockSize;
+
+    // a WaveFunction kept off the heap is collapsed straight into its storage, any other through a temporary one
+    values = wf.storage != null ? wf.storage : new GridStorage(width * height);
+    values.fill(-1);
+    failed = false;
+
+    // the seeds are drawn up front, and the seams are closed in block order with seeds of their own blocks,
+    // so a seeded WaveFunction generates the same grid however the blocks are scheduled
+    seeds = new long[blockRows * blockCols];
+    for (int i = 0; i < seeds.length; i++)
+    {
+      seeds[i] = wf.nextSeed();
+    }
+    unfitted = new boolean[blockRows * blockCols];
+
+    for (int round = 0; round < 3; round++)
+    {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int br = 0; br < blockRows; br++)
+      {
+        for (int bc = 0; bc < blockCols; bc++)
+        {
+          if ((br & 1) + (bc & 1) == round)
+            tasks.add(new RegionTask(br * blockCols + bc));
+        }
+      }
+
+      for (Future<Void> future : pool.invokeAll(tasks))
+      {
+        try
+        {
+          future.get();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+        catch (ExecutionException e)
+        {
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    }
+
+    // close the seams of the blocks that did not fit, one at a time, as their bands can overlap
+    for (int block = 0; block < unfitted.length; block++)
+    {
+      if (unfitted[block])
+        closeSeam(block);
+    }
+
+    if (values != wf.storage)
+    {
+      long start = System.nanoTime();
+      for (int i = 0; i < width * height; i++)
+      {
+        int value = values.getValue(i);
+        if (value >= 0)
+          wf.setCollapsed(i, value);
+      }
+      wf.addCopyNanos(System.nanoTime() - start);
+    }
+    return !failed;
+  }
+
+  /**
+   * Returns the region a block collapses in its round, {top, left, rows, cols}.
+   * The blocks of the last round are widened by just under half a block on every side
+   */
+  private int[] regionOf(int block)
+  {
+    int br = block / blockCols;
+    int bc = block % blockCols;
+    int top = br * blockSize;
+    int left = bc * blockSize;
+    int bottom = Math.min(height, top + blockSize);
+    int right = Math.min(width, left + blockSize);
+    if ((br & 1) + (bc & 1) == 2)
+    {
+      int margin = (blockSize - 1) / 2;
+      top = Math.max(0, top - margin);
+      left = Math.max(0, left - margin);
+      bottom = Math.min(height, bottom + margin);
+      right = Math.min(width, right + margin);
+    }
+    return new int[] {top, left, bottom - top, right - left};
+  }
+
+  /**
+   * A task collapsing the region of one block, marking the block if it could not fit its neighbors.
+   * Each task only writes its own block's entry, and invokeAll waits for all of them before it is read
+   */
+  private class RegionTask implements Callable<Void>
+  {
+    private int block;
+
+    RegionTask(int block)
+    {
+      this.block = block;
+    }
+
+    public Void call()
+    {
+      int[] region = regionOf(block);
+      if (!collapseRegion(region[0], region[1], region[2], region[3], seeds[block]))
+      {
+        unfitted[block] = true;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Collapses a block's region again with a band of the cells around it, widening the band on each attempt.
+   * Each attempt's seed comes from the block's own seed, not from the WaveFunction, so it does not depend on
+   * how many other seams were closed before
+   */
+  private void closeSeam(int block)
+  {
+    int[] region = regionOf(block);
+    int top = region[0];
+    int left = region[1];
+    int rows = region[2];
+    int cols = region[3];
+    int band = Math.max(1, blockSize / 2);
+    for (int attempt = 0; attempt < MAX_SEAM_ATTEMPTS; attempt++)
+    {
+      int bandTop = Math.max(0, top - band);
+      int bandLeft = Math.max(0, left - band);
+      int bandBottom = Math.min(height, top + rows + band);
+      int bandRight = Math.min(width, left + cols + band);
+
+      // keep the band's old values, in case the attempt fails
+      int[] saved = new int[(bandBottom - bandTop) * (bandRight - bandLeft)];
+      int index = 0;
+      for (int i = bandTop; i < bandBottom; i++)
+      {
+        for (int j = bandLeft; j < bandRight; j++)
+        {
+          saved[index++] = values.getValue(i * width + j);
+          values.setValue(i * width + j, -1);
+        }
+      }
+
+      long seed = seeds[block] + (attempt + 1) * 0x9E3779B97F4A7C15L;
+      if (collapseRegion(bandTop, bandLeft, bandBottom - bandTop, bandRight - bandLeft, seed))
+      {
+        return;
+      }
+
+      index = 0;
+      for (int i = bandTop; i < bandBottom; i++)
+      {
+        for (int j = bandLeft; j < bandRight; j++)
+        {
+          values.setValue(i * width + j, saved[index++]);
+        }
+      }
+      band *= 2;
+    }
+
+    failed = true;
+  }
+
+  /**
+   * Collapses a region of the grid on its own WaveFunction, restricted by the values already around it.
+   * Cells next to the region that were not collapsed yet do not restrict it.
+   * @return false if the region could not be collapsed, leaving its values untouched
+   */
+  private boolean collapseRegion(int top, int left, int rows, int cols, long seed)
+  {
+    WaveFunction region = new WaveFunction(wf, cols, rows, seed);
+    region.reportsMetrics = false;
+
+    // a region that cannot fit the values around it fails at its first restriction, without collapsing
+    boolean fits = true;
+    for (int i = 0; i < rows && fits; i++)
+    {
+      for (int j = 0; j < cols && fits; j++)
+      {
+        int cell = (top + i) * width + (left + j);
+        int local = i * cols + j;
+
+        long[] restriction = wf.getRestriction(cell);
+        if (restriction != null)
+        {
+          fits = region.restrict(local, restriction);
+        }
+
+        // only the border cells of the region have neighbors outside of it
+        if (i == 0 && top > 0 && values.getValue(cell - width) >= 0)
+          fits &= region.restrict(local, rules.getNeighbors(Ruleset.DOWN, values.getValue(cell - width)));
+        if (i == rows - 1 && top + rows < height && values.getValue(cell + width) >= 0)
+          fits &= region.restrict(local, rules.getNeighbors(Ruleset.UP, values.getValue(cell + width)));
+        if (j == 0 && left > 0 && values.getValue(cell - 1) >= 0)
+          fits &= region.restrict(local, rules.getNeighbors(Ruleset.RIGHT, values.getValue(cell - 1)));
+        if (j == cols - 1 && left + cols < width && values.getValue(cell + 1) >= 0)
+          fits &= region.restrict(local, rules.getNeighbors(Ruleset.LEFT, values.getValue(cell + 1)));
+      }
+    }
+
+    if (fits)
+    {
+      region.collapse();
+    }
+    wf.addMetrics(region);
+    if (region.isFailed())
+    {
+      return false;
+    }
+
+    long start = System.nanoTime();
+    IntBuffer regionValues = region.getGridView();
+    for (int i = 0; i < rows; i++)
+    {
+      for (int j = 0; j < cols; j++)
+      {
+        values.setValue((top + i) * width + (left + j), regionValues.get());
+      }
+    }
+    wf.addCopyNanos(System.nanoTime() - start);
+    return true;
+  }
+}
@@ -0,0 +1,187 @@
+package com.drawing;
+import java.util.Arrays;
+
+/**
+ * The PathFinder class finds the shortest paths between cells of a Walkability, by A* search
+ * with the Manhattan distance as its heuristic, as every step costs the same and goes up, right, down or left.
+ *
+ * The open cells are kept in a PathHeap keyed by their estimated path length, ties going to the cell nearer the goal.
+ * Every buffer is made once, the size of the grid, and a search only resets the cells it reached, by stamping them
+ * with its own number, so a query allocates nothing and costs nothing for the cells it never reached.
+ * Two cells in different areas of the Walkability are answered without searching at all.
+ *
+ * A PathFinder is not thread safe, each thread needs its own, but they can share a Walkability.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class PathFinder
+{
+  // the change in row and in column of a step in each direction, as in Ruleset
+  private static final int[] ROW_STEPS = {-1, 0, 1, 0};
+  private static final int[] COL_STEPS = {0, 1, 0, -1};
+
+  private final Walkability walkability;
+  private final int width;
+  private final int[] offsets;  // the change in grid index of a step in each direction
+
+  // per cell, valid only where stamp is the current search
+  private final int[] stamp;     // the search that last reached each cell
+  private final int[] cost;      // the length of the shortest path found to each cell
+  private final int[] previous;  // the cell each cell was reached from, or -1 for the start
+  private final PathHeap open;
+  private int search;
+
+  private int expanded;
+
+  /**
+   * A PathFinder constructor
+   * @param walkability the grid to find paths on
+   */
+  public PathFinder(Walkability walkability)
+  {
+    this.walkability = walkability;
+    this.width = walkability.getWidth();
+    this.offsets = new int[] {-width, 1, width, -1};
+    int cells = width * walkability.getHeight();
+    stamp = new int[cells];
+    cost = new int[cells];
+    previous = new int[cells];
+    open = new PathHeap(cells);
+  }
+
+  /**
+   * Returns the grid this PathFinder finds paths on
+   * @return the Walkability
+   */
+  public Walkability getWalkability()
+  {
+    return walkability;
+  }
+
+  /**
+   * Finds a shortest path between two cells
+   * @param startRow the row of the cell to start from
+   * @param startCol the column of the cell to start from
+   * @param goalRow the row of the cell to get to
+   * @param goalCol the column of the cell to get to
+   * @param path filled with the grid index, row * width + col, of each cell of the path from the start to the goal,
+   * as many as fit. May be null to only find the length
+   * @return the number of cells of the path, both ends included, or -1 if the goal cannot be reached
+   */
+  public int findPath(int startRow, int startCol, int goalRow, int goalCol, int[] path)
+  {
+    int start = startRow * width + startCol;
+    int goal = goalRow * width + goalCol;
+    if (!search(start, goal))
+      return -1;
+
+    int length = cost[goal] + 1;
+    if (path != null)
+    {
+      int index = length - 1;
+      for (int cell = goal; cell >= 0; cell = previous[cell])
+      {
+        if (index < path.length)
+          path[index] = cell;
+        index--;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Finds the number of steps between two cells along a shortest path
+   * @param startRow the row of the cell to start from
+   * @param startCol the column of the cell to start from
+   * @param goalRow the row of the cell to get to
+   * @param goalCol the column of the cell to get to
+   * @return the number of steps, or -1 if the goal cannot be reached
+   */
+  public int distance(int startRow, int startCol, int goalRow, int goalCol)
+  {
+    int goal = goalRow * width + goalCol;
+    if (!search(startRow * width + startCol, goal))
+      return -1;
+    return cost[goal];
+  }
+
+  /**
+   * Returns how much work the latest search did
+   * @return the number of cells it expanded
+   */
+  public int getExpanded()
+  {
+    return expanded;
+  }
+
+  /**
+   * Searches from the start until the goal is expanded
+   * @return true if the goal was reached, with cost and previous set along the path to it
+   */
+  private boolean search(int start, int goal)
+  {
+    expanded = 0;
+    if (!walkability.canReach(start, goal))
+      return false;
+
+    if (++search == 0)
+    {
+      Arrays.fill(stamp, 0);
+      search = 1;
+    }
+    open.clear();
+    int goalRow = goal / width;
+    int goalCol = goal % width;
+
+    stamp[start] = search;
+    cost[start] = 0;
+    previous[start] = -1;
+    int h = estimate(start / width, start % width, goalRow, goalCol);
+    open.push(start, PathHeap.key(h, h));
+    while (!open.isEmpty())
+    {
+      int cell = open.pop();
+      expanded++;
+      if (cell == goal)
+        return true;
+
+      // a side is only open if there is a cell beyond it, so the neighbors need no bounds checks
+      int sides = walkability.getSides(cell);
+      int row = cell / width;
+      int col = cell - row * width;
+      int next = cost[cell] + 1;
+      for (int direction = 0; direction < 4; direction++)
+      {
+        if ((sides & (1 << direction)) == 0)
+          continue;
+
+        int other = cell + offsets[direction];
+        h = estimate(row + ROW_STEPS[direction], col + COL_STEPS[direction], goalRow, goalCol);
+        if (stamp[other] != search)
+        {
+          stamp[other] = search;
+          cost[other] = next;
+          previous[other] = cell;
+          open.push(other, PathHeap.key(next + h, h));
+        }
+        else if (open.isQueued(other) && next < cost[other])
+        {
+          // the heuristic is consistent, so an expanded cell never has a shorter path left to be found
+          cost[other] = next;
+          previous[other] = cell;
+          open.decrease(other, PathHeap.key(next + h, h));
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the Manhattan distance from a cell to the goal, which never overestimates the steps left
+   */
+  private static int estimate(int row, int col, int goalRow, int goalCol)
+  {
+    return Math.abs(row - goalRow) + Math.abs(col - goalCol);
+  }
+}
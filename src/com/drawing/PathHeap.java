@@ -0,0 +1,144 @@
+package com.drawing;
+
+/**
+ * The PathHeap class is the indexed binary min-heap of cells the path finders search from, keyed by a long,
+ * the estimated path length through a cell << 32 | its estimated distance to the goal, so ties go to the cell nearer the goal.
+ *
+ * Clearing it only forgets its size, so a search that reaches few cells costs little. The positions of cells
+ * pushed before the latest clear are left behind, so isQueued only means anything for a cell pushed since,
+ * which the path finders know from their own stamps.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+class PathHeap
+{
+  private final int[] heap;       // the cells, in heap order
+  private final long[] keys;      // the key of the cell at each index of heap
+  private final int[] position;   // the index of each cell in heap, or -1 once it is popped
+  private int size;
+
+  /**
+   * A PathHeap constructor, for the cells 0 to capacity-1
+   * @param capacity the number of cells in the grid
+   */
+  PathHeap(int capacity)
+  {
+    heap = new int[capacity];
+    keys = new long[capacity];
+    position = new int[capacity];
+  }
+
+  /**
+   * Returns the key of a cell
+   * @param estimate the estimated length of the path through the cell
+   * @param remaining the estimated distance from the cell to the goal
+   */
+  static long key(int estimate, int remaining)
+  {
+    return ((long) estimate << 32) | remaining;
+  }
+
+  void clear()
+  {
+    size = 0;
+  }
+
+  boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * Determines if a cell pushed since the latest clear has not been popped yet
+   */
+  boolean isQueued(int cell)
+  {
+    return position[cell] >= 0;
+  }
+
+  void push(int cell, long key)
+  {
+    heap[size] = cell;
+    keys[size] = key;
+    position[cell] = size;
+    size++;
+    siftUp(size - 1);
+  }
+
+  /**
+   * Lowers the key of a queued cell
+   */
+  void decrease(int cell, long key)
+  {
+    int index = position[cell];
+    keys[index] = key;
+    siftUp(index);
+  }
+
+  /**
+   * Removes and returns the cell with the least key
+   */
+  int pop()
+  {
+    int cell = heap[0];
+    position[cell] = -1;
+    size--;
+    if (size > 0)
+    {
+      heap[0] = heap[size];
+      keys[0] = keys[size];
+      position[heap[0]] = 0;
+      siftDown(0);
+    }
+    return cell;
+  }
+
+  private void siftUp(int index)
+  {
+    int cell = heap[index];
+    long key = keys[index];
+    while (index > 0)
+    {
+      int parent = (index - 1) >>> 1;
+      if (keys[parent] <= key)
+        break;
+      move(parent, index);
+      index = parent;
+    }
+    heap[index] = cell;
+    keys[index] = key;
+    position[cell] = index;
+  }
+
+  private void siftDown(int index)
+  {
+    int cell = heap[index];
+    long key = keys[index];
+    while (true)
+    {
+      int child = 2 * index + 1;
+      if (child >= size)
+        break;
+      if (child + 1 < size && keys[child + 1] < keys[child])
+        child++;
+      if (key <= keys[child])
+        break;
+      move(child, index);
+      index = child;
+    }
+    heap[index] = cell;
+    keys[index] = key;
+    position[cell] = index;
+  }
+
+  /**
+   * Moves the heap entry at one index to another
+   */
+  private void move(int from, int to)
+  {
+    heap[to] = heap[from];
+    keys[to] = keys[from];
+    position[heap[to]] = to;
+  }
+}
@@ -0,0 +1,151 @@
+package com.drawing;
+import java.util.Arrays;
+
+/**
+ * The Ruleset class is the compiled form of the adjacency rules of an array of analyzed States.
+ *
+ * For each direction, the States that can sit on that side of every State are stored in one flat int array,
+ * with an offset table marking where each State's run of neighbors starts. The WaveFunction walks these runs
+ * when it propagates, instead of the ArrayLists held by each State.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class Ruleset
+{
+  public static final int UP = 0;
+  public static final int RIGHT = 1;
+  public static final int DOWN = 2;
+  public static final int LEFT = 3;
+
+  private int numStates;
+  private int[][] offsets;    // offsets[direction][state] to offsets[direction][state+1] is the run of neighbors
+  private int[][] adjacent;   // adjacent[direction] holds the runs of neighbors of every state, back to back
+
+  /**
+   * A Ruleset constructor, compiling the adjacency lists of States that have already been analyzed
+   * @param states the array of States, each analyzed against the same array
+   */
+  public Ruleset(State[] states)
+  {
+    numStates = states.length;
+    offsets = new int[4][numStates + 1];
+    adjacent = new int[4][];
+
+    for (int direction = 0; direction < 4; direction++)
+    {
+      int total = 0;
+      for (int s = 0; s < numStates; s++)
+      {
+        offsets[direction][s] = total;
+        total += states[s].getList(direction).size();
+      }
+      offsets[direction][numStates] = total;
+
+      adjacent[direction] = new int[total];
+      int index = 0;
+      for (int s = 0; s < numStates; s++)
+      {
+        for (int neighbor : states[s].getList(direction))
+        {
+          adjacent[direction][index++] = neighbor;
+        }
+      }
+    }
+  }
+
+  /**
+   * A Ruleset constructor from rules compiled before, such as by RulesetCache
+   * @param offsets for each direction, where each State's run of neighbors starts, with one more entry marking the end
+   * @param adjacent for each direction, the runs of neighbors of every State, back to back
+   */
+  Ruleset(int[][] offsets, int[][] adjacent)
+  {
+    this.numStates = offsets[0].length - 1;
+    this.offsets = offsets;
+    this.adjacent = adjacent;
+  }
+  
+  /**
+   * Returns the direction facing the opposite way
+   * @param direction one of UP, RIGHT, DOWN or LEFT
+   * @return the opposite direction
+   */
+  public static int opposite(int direction)
+  {
+    return (direction + 2) & 3;
+  }
+
+  /**
+   * Returns the number of States the rules were compiled from
+   * @return the number of States
+   */
+  public int getNumStates()
+  {
+    return numStates;
+  }
+
+  /**
+   * Returns the flat array of neighbors for a direction. The neighbors of a State are found between getStart and getEnd
+   * @param direction one of UP, RIGHT, DOWN or LEFT
+   * @return the array of neighbor State indices, by reference
+   */
+  public int[] getAdjacent(int direction)
+  {
+    return adjacent[direction];
+  }
+
+  /**
+   * Returns the offset table for a direction, the neighbors of State s running from offsets[s] to offsets[s+1]
+   * @param direction one of UP, RIGHT, DOWN or LEFT
+   * @return the array of numStates+1 offsets, by reference
+   */
+  int[] getOffsets(int direction)
+  {
+    return offsets[direction];
+  }
+  
+  /**
+   * Returns the index in getAdjacent(direction) where a State's neighbors start
+   * @param direction one of UP, RIGHT, DOWN or LEFT
+   * @param state the State index
+   * @return the first index of the State's neighbors
+   */
+  public int getStart(int direction, int state)
+  {
+    return offsets[direction][state];
+  }
+
+  /**
+   * Returns the index in getAdjacent(direction) just past a State's neighbors
+   * @param direction one of UP, RIGHT, DOWN or LEFT
+   * @param state the State index
+   * @return one past the last index of the State's neighbors
+   */
+  public int getEnd(int direction, int state)
+  {
+    return offsets[direction][state + 1];
+  }
+
+  /**
+   * Returns the number of States that can sit on one side of a State
+   * @param direction one of UP, RIGHT, DOWN or LEFT
+   * @param state the State index
+   * @return the number of neighbors
+   */
+  public int getCount(int direction, int state)
+  {
+    return offsets[direction][state + 1] - offsets[direction][state];
+  }
+
+  /**
+   * Returns a copy of the States that can sit on one side of a State
+   * @param direction one of UP, RIGHT, DOWN or LEFT
+   * @param state the State index
+   * @return an array of neighbor State indices
+   */
+  public int[] getNeighbors(int direction, int state)
+  {
+    return Arrays.copyOfRange(adjacent[direction], offsets[direction][state], offsets[direction][state + 1]);
+  }
+}
@@ -0,0 +1,303 @@
+package com.drawing;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The RulesetCache class keeps the compiled form of tilesets in a directory, so a tileset is only analyzed once.
+ *
+ * A tileset is named by a SHA-256 hash of its edge data, rotational symmetry and weights. Its file holds the States
+ * left after canonicalization, their weights, and the flat adjacency runs of its Ruleset, and is memory-mapped to be read.
+ * Tilesets read or compiled once are also held in memory, so later WaveFunctions of the same tileset share them outright.
+ * The States read from a file only carry their reference, rotations and edges; their adjacency lives in the Ruleset.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class RulesetCache
+{
+  private static final int MAGIC = 0x57465253;   // "WFRS"
+  private static final int VERSION = 1;
+
+  private File directory;
+  private final HashMap<Contents, Tileset> loaded = new HashMap<Contents, Tileset>();
+
+  /**
+   * The arrays a tileset is made from, compared by content, naming it in memory without hashing it
+   */
+  private static class Contents
+  {
+    private int[][] edgeData;
+    private int[] rotationSymmetry;
+    private int[] weights;
+    private int hash;
+
+    Contents(int[][] edgeData, int[] rotationSymmetry, int[] weights)
+    {
+      this.edgeData = edgeData;
+      this.rotationSymmetry = rotationSymmetry;
+      this.weights = weights;
+      this.hash = (Arrays.deepHashCode(edgeData) * 31 + Arrays.hashCode(rotationSymmetry)) * 31 + Arrays.hashCode(weights);
+    }
+
+    /**
+     * Returns a copy that no caller can change afterwards
+     */
+    Contents copy()
+    {
+      int[][] edges = new int[edgeData.length][];
+      for (int i = 0; i < edgeData.length; i++)
+      {
+        edges[i] = Arrays.copyOf(edgeData[i], edgeData[i].length);
+      }
+      return new Contents(edges, Arrays.copyOf(rotationSymmetry, rotationSymmetry.length), Arrays.copyOf(weights, weights.length));
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+      if (!(other instanceof Contents))
+        return false;
+      Contents that = (Contents) other;
+      return hash == that.hash && Arrays.deepEquals(edgeData, that.edgeData)
+          && Arrays.equals(rotationSymmetry, that.rotationSymmetry) && Arrays.equals(weights, that.weights);
+    }
+  }
+
+  /**
+   * A compiled tileset, shared by every WaveFunction made from it, and never changed
+   */
+  static class Tileset
+  {
+    final State[] states;
+    final double[] stateWeights;
+    final Ruleset rules;
+
+    Tileset(State[] states, double[] stateWeights, Ruleset rules)
+    {
+      this.states = states;
+      this.stateWeights = stateWeights;
+      this.rules = rules;
+    }
+  }
+
+  /**
+   * A RulesetCache constructor
+   * @param directory the directory to keep compiled tilesets in, created if needed
+   */
+  public RulesetCache(File directory)
+  {
+    this.directory = directory;
+    directory.mkdirs();
+  }
+
+  /**
+   * Returns the name a tileset is kept under, a hash of its contents
+   * @param edgeData a matrix of integer edge data of the tiles
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @return the hash, as 64 hexadecimal digits
+   */
+  public static String key(int[][] edgeData, int[] rotationSymmetry, int[] weights)
+  {
+    try
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(VERSION);
+      out.writeInt(edgeData.length);
+      for (int[] edges : edgeData)
+      {
+        out.writeInt(edges.length);
+        for (int edge : edges)
+          out.writeInt(edge);
+      }
+      writeArray(out, rotationSymmetry);
+      writeArray(out, weights);
+      out.flush();
+
+      StringBuilder hex = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()))
+      {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeArray(DataOutputStream out, int[] values) throws IOException
+  {
+    out.writeInt(values.length);
+    for (int value : values)
+      out.writeInt(value);
+  }
+
+  /**
+   * Returns a compiled tileset from memory or from its file
+   * @return the tileset, or null if it was never stored
+   */
+  synchronized Tileset load(int[][] edgeData, int[] rotationSymmetry, int[] weights)
+  {
+    Contents contents = new Contents(edgeData, rotationSymmetry, weights);
+    Tileset tileset = loaded.get(contents);
+    if (tileset == null)
+    {
+      tileset = read(new File(directory, key(edgeData, rotationSymmetry, weights) + ".rules"));
+      if (tileset != null)
+        loaded.put(contents.copy(), tileset);
+    }
+    return tileset;
+  }
+
+  /**
+   * Keeps a compiled tileset in memory and writes it to its file
+   */
+  synchronized void store(int[][] edgeData, int[] rotationSymmetry, int[] weights, Tileset tileset)
+  {
+    loaded.put(new Contents(edgeData, rotationSymmetry, weights).copy(), tileset);
+    write(new File(directory, key(edgeData, rotationSymmetry, weights) + ".rules"), tileset);
+  }
+
+  private static void write(File file, Tileset tileset)
+  {
+    // written beside the file and renamed over it, so a reader never sees half of one
+    File temp = new File(file.getPath() + ".tmp");
+    try
+    {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try
+      {
+        int numStates = tileset.states.length;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numStates);
+        for (State state : tileset.states)
+        {
+          out.writeInt(state.getReference());
+          out.writeInt(state.getNumRotations());
+          for (int i = 0; i < 4; i++)
+            out.writeInt(state.getEdge(i));
+        }
+        for (double weight : tileset.stateWeights)
+        {
+          out.writeDouble(weight);
+        }
+        for (int direction = 0; direction < 4; direction++)
+        {
+          for (int offset : tileset.rules.getOffsets(direction))
+            out.writeInt(offset);
+          for (int neighbor : tileset.rules.getAdjacent(direction))
+            out.writeInt(neighbor);
+        }
+      }
+      finally
+      {
+        out.close();
+      }
+
+      if (!temp.renameTo(file))
+      {
+        file.delete();
+        temp.renameTo(file);
+      }
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+      temp.delete();
+    }
+  }
+
+  private static Tileset read(File file)
+  {
+    if (!file.exists())
+    {
+      return null;
+    }
+
+    try
+    {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try
+      {
+        MappedByteBuffer in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        if (in.getInt() != MAGIC || in.getInt() != VERSION)
+        {
+          System.out.println("Ruleset file " + file + " is not of this version, compiling again.");
+          return null;
+        }
+
+        int numStates = in.getInt();
+        State[] states = new State[numStates];
+        for (int s = 0; s < numStates; s++)
+        {
+          int reference = in.getInt();
+          int rotations = in.getInt();
+          int[] edges = new int[4];
+          for (int i = 0; i < 4; i++)
+            edges[i] = in.getInt();
+          states[s] = new State(reference, edges, rotations);
+        }
+
+        double[] stateWeights = new double[numStates];
+        for (int s = 0; s < numStates; s++)
+        {
+          stateWeights[s] = in.getDouble();
+        }
+
+        int[][] offsets = new int[4][numStates + 1];
+        int[][] adjacent = new int[4][];
+        for (int direction = 0; direction < 4; direction++)
+        {
+          in.asIntBuffer().get(offsets[direction]);
+          in.position(in.position() + 4 * (numStates + 1));
+          adjacent[direction] = new int[offsets[direction][numStates]];
+          in.asIntBuffer().get(adjacent[direction]);
+          in.position(in.position() + 4 * adjacent[direction].length);
+        }
+        return new Tileset(states, stateWeights, new Ruleset(offsets, adjacent));
+      }
+      finally
+      {
+        raf.close();
+      }
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+      return null;
+    }
+    catch (RuntimeException e)
+    {
+      // a truncated or corrupt file is compiled again
+      System.out.println("Ruleset file " + file + " could not be read, compiling again.");
+      return null;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.drawing;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The SocketTable class interns the labels of tile edges, or sockets, to small integers,
+ * so tilesets can name their sockets freely instead of packing them into 3 bit integers.
+ *
+ * A socket is read clockwise around its tile, so the neighbor across an edge reads it the other way round:
+ * by default a socket connects to the socket with its label reversed, the way a 3 bit socket connects to its bits reversed.
+ * "ab" connects to "ba", and a label that reads the same both ways, such as "grass", connects to itself.
+ * Sockets that connect otherwise, such as a plug and its outlet, can be paired explicitly.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class SocketTable
+{
+  private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+  private final ArrayList<String> labels = new ArrayList<String>();
+  private final HashMap<Integer, Integer> pairs = new HashMap<Integer, Integer>();
+
+  /**
+   * Returns the integer of a socket, giving it the next free one the first time it is seen
+   * @param label the label of the socket
+   * @return the interned socket, from 0 up
+   */
+  public int intern(String label)
+  {
+    Integer id = ids.get(label);
+    if (id == null)
+    {
+      id = labels.size();
+      ids.put(label, id);
+      labels.add(label);
+    }
+    return id;
+  }
+
+  /**
+   * Interns a matrix of labelled edge data
+   * @param edgeLabels a matrix of the socket labels of each tile, clockwise from the top
+   * @return the same matrix of interned sockets, as integer edge data
+   */
+  public int[][] intern(String[][] edgeLabels)
+  {
+    int[][] edgeData = new int[edgeLabels.length][];
+    for (int i = 0; i < edgeLabels.length; i++)
+    {
+      edgeData[i] = new int[edgeLabels[i].length];
+      for (int j = 0; j < edgeLabels[i].length; j++)
+      {
+        edgeData[i][j] = intern(edgeLabels[i][j]);
+      }
+    }
+    return edgeData;
+  }
+
+  /**
+   * Makes two sockets connect to each other, instead of to their reversed labels
+   * @param label one socket
+   * @param other the socket it connects to
+   */
+  public void pair(String label, String other)
+  {
+    int a = intern(label);
+    int b = intern(other);
+    pairs.put(a, b);
+    pairs.put(b, a);
+  }
+
+  /**
+   * Returns the socket an edge must have to connect to a socket
+   * @param socket the interned socket
+   * @return the interned socket it connects to
+   */
+  public int reverse(int socket)
+  {
+    Integer paired = pairs.get(socket);
+    if (paired != null)
+      return paired;
+    return intern(new StringBuilder(labels.get(socket)).reverse().toString());
+  }
+
+  /**
+   * Returns, for every socket, the socket an edge must have to connect to it, as State.analyzeAll takes it.
+   * The reversed labels are interned as well, so the table may grow
+   * @return the reverse of every interned socket, indexed by socket
+   */
+  public int[] getReverse()
+  {
+    int[] reverse = new int[labels.size()];
+    for (int socket = 0; socket < reverse.length; socket++)
+    {
+      int other = reverse(socket);
+      if (other >= reverse.length)
+        reverse = Arrays.copyOf(reverse, labels.size());
+      reverse[socket] = other;
+    }
+    return reverse;
+  }
+
+  /**
+   * Returns the label of an interned socket
+   * @param socket the interned socket
+   * @return its label
+   */
+  public String getLabel(int socket)
+  {
+    return labels.get(socket);
+  }
+
+  /**
+   * Returns the number of interned sockets
+   * @return the number of sockets
+   */
+  public int size()
+  {
+    return labels.size();
+  }
+}
@@ -1,5 +1,6 @@
 package com.drawing;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * The State class holds the data of a single state of a 2D tile
@@ -128,12 +129,92 @@ public class State
     }
   }
   
+  /**
+   * Analyzes every State of an array against the whole array, as analyze does for one State, without comparing every pair.
+   * The States are bucketed by the socket on each of their edges, so the States that can sit on one side of a State
+   * are exactly one bucket, and the work grows with the number of States plus the number of connections found.
+   * Sockets must not be negative. Neighbors are listed in index order, the same as analyze lists them.
+   * @param tiles the array of States to analyze
+   * @param reverse for each socket, the socket an edge must have to connect to it, or null for reversed 3 bit sockets
+   */
+  public static void analyzeAll(State[] tiles, int[] reverse)
+  {
+    int numSockets = 0;
+    for (State tile : tiles)
+    {
+      for (int edge : tile.edges)
+        numSockets = Math.max(numSockets, edge + 1);
+    }
+    
+    // for each edge, the States with each socket on that edge, grouped by socket and in index order within a socket
+    int[][] start = new int[4][numSockets + 1];
+    int[][] members = new int[4][tiles.length];
+    for (int edge = 0; edge < 4; edge++)
+    {
+      for (State tile : tiles)
+        start[edge][tile.edges[edge] + 1]++;
+      for (int socket = 0; socket < numSockets; socket++)
+        start[edge][socket + 1] += start[edge][socket];
+      
+      int[] next = Arrays.copyOf(start[edge], numSockets);
+      for (int i = 0; i < tiles.length; i++)
+        members[edge][next[tiles[i].edges[edge]]++] = i;
+    }
+    
+    for (State tile : tiles)
+    {
+      tile.up.clear();
+      tile.right.clear();
+      tile.down.clear();
+      tile.left.clear();
+      
+      // the neighbor on a side connects with its opposite edge, edge 0 (up) to 2 (down) and 1 (right) to 3 (left)
+      for (int direction = 0; direction < 4; direction++)
+      {
+        int socket = tile.edges[direction];
+        int wanted = reverse == null ? reverse3(socket) : (socket < reverse.length ? reverse[socket] : -1);
+        if (wanted < 0 || wanted >= numSockets)
+          continue;
+        
+        int facing = Ruleset.opposite(direction);
+        ArrayList<Integer> list = tile.getList(direction);
+        for (int k = start[facing][wanted]; k < start[facing][wanted + 1]; k++)
+          list.add(members[facing][k]);
+      }
+    }
+  }
+  
+  /**
+   * Retrieves the Arraylist of this tile-State's indices of possible connections on an edge
+   * @param direction the edge, one of Ruleset.UP, RIGHT, DOWN or LEFT
+   * @return the ArrayList of integers of indices of possible connections on that edge
+   */
+  ArrayList<Integer> getList(int direction)
+  {
+    switch (direction)
+    {
+      case Ruleset.UP:
+        return up;
+      case Ruleset.RIGHT:
+        return right;
+      case Ruleset.DOWN:
+        return down;
+      default:
+        return left;
+    }
+  }
+  
   /**
    * Reverses a 3 bit integer
    * @param num the integer to reverse
    * @return the reverse of the integer
    */
   private int reverseInt(int num)
+  {
+    return reverse3(num);
+  }
+  
+  private static int reverse3(int num)
   {
     int result = ((num&4)>>2)|(num&2)|((num&1)<<2);
     return result;
@@ -4,12 +4,17 @@ import java.util.ArrayList;
 /**
  * The Superposition class holds a list of possible values it can be, being collapsed when it has only one value remaining.
  * 
+ * The options are packed into a bitset of longs, bit i of word (i / 64) being set when the State at index i is still possible.
+ * A tileset of up to 64 States fits in a single word, larger tilesets simply use more words.
+ * 
  * @author Damian Deugarte
  * @version 2023-03-04
  */
 public class Superposition
 {
-  private ArrayList<Integer> options;
+  private long[] bits;
+  private int numStates;
+  private int size;
   
   // the options are the indexes to the array of superpositions. 
   /**
@@ -19,21 +24,9 @@ public class Superposition
    */
   public Superposition(int value) 
   {
-    options = new ArrayList<Integer>();
-
-    if (options.contains(value))
-    {
-      options.clear();
-      options.add(value);
-    }
-    else
-    {
-      options.clear();
-      for (int i=0; i<value; i++)
-      {
-        options.add(i);
-      }
-    }
+    numStates = value;
+    bits = new long[wordsFor(value)];
+    fill();
   }
   
   /**
@@ -42,12 +35,35 @@ public class Superposition
    */
   public Superposition(Superposition other)
   {
-    this.options = new ArrayList<Integer>();
-    
-    for (int each : other.getOptions())
+    this.numStates = other.numStates;
+    this.size = other.size;
+    this.bits = other.bits.clone();
+  }
+  
+  /**
+   * Returns the number of longs needed to hold a bitset of a number of States
+   * @param numStates the number of States
+   * @return the number of 64 bit words
+   */
+  public static int wordsFor(int numStates)
+  {
+    return (numStates + 63) >>> 6;
+  }
+  
+  /**
+   * Sets every State from 0 to numStates-1 as a possible option
+   */
+  public void fill()
+  {
+    for (int w = 0; w < bits.length; w++)
+    {
+      bits[w] = -1L;
+    }
+    if ((numStates & 63) != 0)
     {
-      this.options.add(each);
+      bits[bits.length - 1] = (1L << (numStates & 63)) - 1;
     }
+    size = numStates;
   }
   
   /**
@@ -56,15 +72,40 @@ public class Superposition
    */
   public boolean isCollapsed()
   {
-    return (this.options.size() == 1);
+    return (this.size == 1);
+  }
+  
+  /**
+   * Returns the number of options the Superposition has remaining
+   * @return the number of options
+   */
+  public int size()
+  {
+    return size;
+  }
+  
+  /**
+   * Determines if a State index is still a possible option
+   * @param state the State index to check
+   * @return true if the State is still an option
+   */
+  public boolean contains(int state)
+  {
+    return (bits[state >>> 6] & (1L << state)) != 0;
   }
   
   /**
    * Returns an ArrayList of integers of the options the superposition has remaining
+   * The list is a new copy, changes to it do not affect the Superposition.
    * @return an ArrayList of integers
    */
   public ArrayList<Integer> getOptions()
   {
+    ArrayList<Integer> options = new ArrayList<Integer>(size);
+    for (int state = nextOption(0); state >= 0; state = nextOption(state + 1))
+    {
+      options.add(state);
+    }
     return options;
   }
   
@@ -75,7 +116,67 @@ public class Superposition
    */
   public int getOption(int index)
   {
-    return options.get(index);
+    if (index < 0 || index >= size)
+    {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    
+    for (int w = 0; w < bits.length; w++)
+    {
+      int count = Long.bitCount(bits[w]);
+      if (index < count)
+      {
+        long word = bits[w];
+        for (int i = 0; i < index; i++)
+        {
+          word &= word - 1;   // clear the lowest set bit
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+      }
+      index -= count;
+    }
+    return -1;
+  }
+  
+  /**
+   * Returns the first option at or after a State index
+   * @param from the State index to start looking from
+   * @return the next option, or -1 if there is none
+   */
+  public int nextOption(int from)
+  {
+    int w = from >>> 6;
+    if (w >= bits.length)
+    {
+      return -1;
+    }
+    
+    long word = bits[w] & (-1L << from);
+    while (true)
+    {
+      if (word != 0)
+      {
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if (++w == bits.length)
+      {
+        return -1;
+      }
+      word = bits[w];
+    }
+  }
+  
+  /**
+   * Returns the only remaining option
+   * @return the collapsed State index, or -1 if the Superposition is not collapsed
+   */
+  public int getValue()
+  {
+    if (size != 1)
+    {
+      return -1;
+    }
+    return nextOption(0);
   }
   
   /**
@@ -84,7 +185,57 @@ public class Superposition
    */
   public void removeOption(int index)
   {
-    options.remove(index);
+    remove(getOption(index));
+  }
+  
+  /**
+   * Removes a State from the options
+   * @param state the State index to remove
+   * @return true if the State was an option before the call
+   */
+  public boolean remove(int state)
+  {
+    long bit = 1L << state;
+    int w = state >>> 6;
+    if ((bits[w] & bit) == 0)
+    {
+      return false;
+    }
+    bits[w] &= ~bit;
+    size--;
+    return true;
+  }
+  
+  /**
+   * Adds a State back to the options
+   * @param state the State index to add
+   * @return true if the State was not an option before the call
+   */
+  public boolean add(int state)
+  {
+    long bit = 1L << state;
+    int w = state >>> 6;
+    if ((bits[w] & bit) != 0)
+    {
+      return false;
+    }
+    bits[w] |= bit;
+    size++;
+    return true;
+  }
+  
+  /**
+   * Collapses the Superposition to a single State
+   * @param state the State index to keep
+   */
+  public void setOnly(int state)
+  {
+    for (int w = 0; w < bits.length; w++)
+    {
+      bits[w] = 0L;
+    }
+    bits[state >>> 6] = 1L << state;
+    size = 1;
   }
   
   /**
@@ -93,10 +244,29 @@ public class Superposition
    */
   public void setNewOptions (ArrayList<Integer> newOptions)
   {
-    options.clear();
+    for (int w = 0; w < bits.length; w++)
+    {
+      bits[w] = 0L;
+    }
+    size = 0;
     for (int option : newOptions)
     {
-      options.add(option);
+      long bit = 1L << option;
+      if ((bits[option >>> 6] & bit) == 0)
+      {
+        bits[option >>> 6] |= bit;
+        size++;
+      }
     }
   }
+  
+  /**
+   * Returns the backing bitset of the options, for Connectivity to test them a word at a time.
+   * It is only read, as modifying it directly would bypass the cached size.
+   * @return the array of 64 bit words
+   */
+  long[] getBits()
+  {
+    return bits;
+  }
 }
\ No newline at end of file
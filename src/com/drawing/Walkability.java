@@ -0,0 +1,211 @@
+package com.drawing;
+
+/**
+ * The Walkability class is a compact, read-only picture of which way a character can move out of each cell of a map,
+ * compiled once from the map's collapsed values, its mapping and the edge data of its tiles.
+ *
+ * A side of a cell is open when the rotated edge of its tile has no wall there, the 2 bit clear, as the PlayerCharacter moves.
+ * A step between two cells is kept only if both cells are open towards each other, so every step can be walked back.
+ * Each cell takes 4 bits, one per side as in Ruleset, packed 8 cells to an int, so a 500x500 map takes 125 KB.
+ * The cells are also labeled by the area they are in, so a PathFinder can give up on two cells that cannot reach each other
+ * without searching. A label is an int per cell, as a large map can have more areas than 16 bits can count,
+ * so the labels are the bulk of a Walkability: 1 MB for a 500x500 map, eight times its sides.
+ *
+ * A Walkability never changes, so any number of PathFinders on any number of threads can share one.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class Walkability
+{
+  private final int width;
+  private final int height;
+  private final int[] sides;  // the open sides of each cell as 4 bits, cell 8 * i + j in bits 4 * j to 4 * j + 3 of sides[i]
+  private final int[] areas;  // the area each cell is in, or -1 for a cell without an open side
+  private final int areaCount;
+
+  /**
+   * Compiles the walkability of a grid of collapsed values
+   * @param values the value of each cell, row by row, as in Map, with -1 for a cell that was never collapsed
+   * @param mapping the tile and rotation of each value, as in WaveFunction.getMapping
+   * @param edgeData the edges of each tile, up, right, down and left, before it is rotated
+   * @return the walkability of the grid
+   */
+  public static Walkability compile(int[][] values, int[][] mapping, int[][] edgeData)
+  {
+    // the open sides of every value are worked out once, rather than once for every cell
+    int[] valueSides = new int[mapping.length];
+    for (int value = 0; value < mapping.length; value++)
+    {
+      int[] edges = edgeData[mapping[value][0]];
+      int rotation = mapping[value][1];
+      for (int direction = 0; direction < 4; direction++)
+      {
+        if ((edges[(direction - rotation + 4) % 4]&2) == 0)
+          valueSides[value] |= 1 << direction;
+      }
+    }
+
+    int height = values.length;
+    int width = height == 0 ? 0 : values[0].length;
+    int[] open = new int[width * height];
+    for (int row = 0; row < height; row++)
+    {
+      for (int col = 0; col < width; col++)
+      {
+        int value = values[row][col];
+        open[row * width + col] = value < 0 ? 0 : valueSides[value];
+      }
+    }
+    return new Walkability(width, height, open);
+  }
+
+  /**
+   * A Walkability constructor, keeping only the steps both cells are open to
+   * @param open the open sides of each cell, row by row, as bits
+   */
+  private Walkability(int width, int height, int[] open)
+  {
+    this.width = width;
+    this.height = height;
+    int cells = width * height;
+    sides = new int[(cells + 7) / 8];
+    for (int cell = 0; cell < cells; cell++)
+    {
+      int bits = 0;
+      for (int direction = 0; direction < 4; direction++)
+      {
+        int other = neighbor(cell, direction);
+        if ((open[cell] & (1 << direction)) != 0 && other >= 0 && (open[other] & (1 << Ruleset.opposite(direction))) != 0)
+          bits |= 1 << direction;
+      }
+      sides[cell >>> 3] |= bits << ((cell & 7) << 2);
+    }
+
+    // every area is flood filled once, with the open array reused as the queue
+    areas = new int[cells];
+    int count = 0;
+    for (int cell = 0; cell < cells; cell++)
+    {
+      areas[cell] = getSides(cell) == 0 ? -1 : -2;
+    }
+    int[] queue = open;
+    for (int start = 0; start < cells; start++)
+    {
+      if (areas[start] != -2)
+        continue;
+
+      areas[start] = count;
+      queue[0] = start;
+      int head = 0;
+      int tail = 1;
+      while (head < tail)
+      {
+        int cell = queue[head++];
+        int bits = getSides(cell);
+        for (int direction = 0; direction < 4; direction++)
+        {
+          if ((bits & (1 << direction)) == 0)
+            continue;
+          int other = neighbor(cell, direction);
+          if (areas[other] == -2)
+          {
+            areas[other] = count;
+            queue[tail++] = other;
+          }
+        }
+      }
+      count++;
+    }
+    areaCount = count;
+  }
+
+  /**
+   * Returns the number of columns of the grid
+   * @return the width of the grid
+   */
+  public int getWidth()
+  {
+    return width;
+  }
+
+  /**
+   * Returns the number of rows of the grid
+   * @return the height of the grid
+   */
+  public int getHeight()
+  {
+    return height;
+  }
+
+  /**
+   * Returns the sides a character can move out of a cell through
+   * @param cell the grid index of the cell, row * width + col
+   * @return the open sides as bits, 1 for up, 2 for right, 4 for down and 8 for left
+   */
+  public int getSides(int cell)
+  {
+    return (sides[cell >>> 3] >>> ((cell & 7) << 2)) & 15;
+  }
+
+  /**
+   * Determines if a character can move out of a cell in a direction
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @param direction the direction, as in Ruleset
+   * @return true if the neighbor that way is in the grid, and neither cell has a wall between them
+   */
+  public boolean canMove(int row, int col, int direction)
+  {
+    return (getSides(row * width + col) & (1 << direction)) != 0;
+  }
+
+  /**
+   * Determines if two cells can reach each other at all
+   * @param from the grid index of one cell
+   * @param to the grid index of the other cell
+   * @return true if they are the same cell, or are in the same area
+   */
+  public boolean canReach(int from, int to)
+  {
+    return from == to || (areas[from] >= 0 && areas[from] == areas[to]);
+  }
+
+  /**
+   * Returns the area a cell is in. Cells in the same area can reach each other
+   * @param cell the grid index of the cell
+   * @return the area, from 0 to getAreaCount()-1, or -1 for a cell a character cannot move out of
+   */
+  public int getArea(int cell)
+  {
+    return areas[cell];
+  }
+
+  /**
+   * Returns the number of areas of the grid
+   * @return the number of areas
+   */
+  public int getAreaCount()
+  {
+    return areaCount;
+  }
+
+  /**
+   * Returns the grid index of the cell on one side of another cell
+   * @return the grid index of the neighbor, or -1 if the cell is on that edge of the grid
+   */
+  int neighbor(int cell, int direction)
+  {
+    switch (direction)
+    {
+      case Ruleset.UP:
+        return cell >= width ? cell - width : -1;
+      case Ruleset.RIGHT:
+        return cell % width < width - 1 ? cell + 1 : -1;
+      case Ruleset.DOWN:
+        return cell < (height - 1) * width ? cell + width : -1;
+      default:
+        return cell % width > 0 ? cell - 1 : -1;
+    }
+  }
+}
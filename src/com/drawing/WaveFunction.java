@@ -1,22 +1,11 @@
 // Some wave function collapse algorithm based on neighbors are similar.
 // That is, tile 0 can be next to 0 or 1, 1 next to 0, 1, or 2, 2 next to 1, 2, or 3 and so on. 
 package com.drawing;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.nio.BufferOverflowException;
+import java.nio.IntBuffer;
 import java.util.Arrays;
-
-/**
- * A floating class used to sort Superpositions by their entropy
- * @author Damian Deugarte
- * @version 2023-03-04
- */
-class SortByOptionsLength implements Comparator<Superposition>
-{
-  public int compare(Superposition a, Superposition b)
-  {
-    return a.getOptions().size() - b.getOptions().size();
-  }
-}
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The WaveFunction class requires the Superposition class and the State class to
@@ -34,9 +23,97 @@ public class WaveFunction
   int height;
   Superposition[] grid;
   State[] states;
+  
+  // the State index of every cell once the grid is collapsed or given up on, -1 until then, read through getGridView
+  private int[] values;
   int[][] edgeData;
+  int[] rotationSymmetry;
   int[] weights;
   
+  // for every socket, the socket that connects to it, or null for 3 bit sockets that connect to their bits reversed
+  private int[] socketReverse;
+  
+  // the compiled adjacency rules and, for every cell, State and direction, the number of options
+  // in the neighbor on that side that still allow the State. A State is removed when any count reaches 0.
+  Ruleset rules;
+  private int[] compatible;
+  
+  // the trail of every (cell, State) removal since the oldest decision that can still be undone,
+  // each flagged once it has been propagated to the support counts of the neighbors
+  private int[] trailCells;
+  private int[] trailStates;
+  private boolean[] trailPropagated;
+  private int trailCount;
+  
+  // the propagation worklist, a stack of trail positions that were removed but not yet propagated
+  private int[] pending;
+  private int pendingCount;
+  private boolean contradiction;
+  
+  // the decisions that can still be undone: the cell collapsed, the State it was given, and the trail position before it
+  private int[] decisionCells;
+  private int[] decisionStates;
+  private int[] decisionTrail;
+  private int decisionCount;
+  
+  // tuning of the contradiction recovery, and counters of how it went
+  private int maxBacktrackDepth = 64;
+  private int maxBacktracks = 1000;
+  private int maxRestarts = 20;
+  private int attemptBacktracks;
+  private int leastUncollapsed;
+  private int contradictions;
+  private int backtracks;
+  private int restarts;
+  private boolean failed;
+  
+  // what the current grid has cost so far, reported once when it is collapsed or given up on.
+  // A region of a larger grid leaves the reporting to the grid, which adds the region's metrics to its own
+  private long cellsCollapsed;
+  private long optionsRemoved;
+  private long selectionNanos;
+  private long propagationNanos;
+  private long copyNanos;
+  private boolean finished;
+  private GenerationEvent generationEvent;
+  boolean reportsMetrics = true;
+  
+  // the uncollapsed cells, keyed by their weighted Shannon entropy plus a tiny fixed random noise to break ties.
+  // The sums of w and w*log(w) over each cell's options are kept up to date as options are removed.
+  private EntropyHeap entropy;
+  private double[] noise;
+  private double[] sumWeights;
+  private double[] sumWeightLogWeights;
+  private double[] stateWeights;
+  private double[] choiceWeights;  // the weights of the options of the cell being collapsed, as weighOptions gives them
+  private double[] stateWeightLogWeights;
+  private double totalWeight;
+  private double totalWeightLogWeight;
+  
+  // the noise is far smaller than the gap between two different entropies
+  private static final double NOISE = 1e-6;
+  
+  // the States each cell is restricted to before generation, or null for no restriction. Reapplied on every restart
+  private long[][] restrictions;
+  
+  // when connected, which cells can reach each other, so a grid that could no longer be connected
+  // is a contradiction like a cell without options. Kept through restarts, and kept for reuse while not connected
+  private boolean connected;
+  private boolean disconnected;
+  private Connectivity connectivity;
+  
+  // each WaveFunction has its own generator, so WaveFunctions on different threads never contend for one
+  private SplittableRandom random;
+  
+  // where compiled tilesets are kept between WaveFunctions, and between runs
+  private static volatile RulesetCache rulesetCache;
+  
+  // when set, the grid's values live off the heap and the grid is collapsed in blocks of STORAGE_BLOCK_SIZE,
+  // so none of the buffers above are allocated
+  GridStorage storage;
+  private boolean storageCollapsed;
+  private static final int STORAGE_BLOCK_SIZE = 64;
+  
   /**
    * The WaveFunction constructor
    * @param width the width of the grid to generate
@@ -47,9 +124,70 @@ public class WaveFunction
    */
   public WaveFunction(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights)
   {
+    this(width, height, edgeData, rotationSymmetry, weights, new SplittableRandom(), null);
+  }
+  
+  /**
+   * A WaveFunction constructor with a seed, the same seed always generating the same grid
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param seed the seed of the random choices
+   */
+  public WaveFunction(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights, long seed)
+  {
+    this(width, height, edgeData, rotationSymmetry, weights, new SplittableRandom(seed), null);
+  }
+  
+  /**
+   * A WaveFunction constructor keeping the grid in a GridStorage, off the heap, for grids too large to hold on it.
+   * The grid is only collapsed as a whole, block by block on the common ForkJoinPool, into the storage.
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param seed the seed of the random choices
+   * @param storage the storage of the grid, with at least width*height cells
+   */
+  public WaveFunction(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights, long seed, GridStorage storage)
+  {
+    this(width, height, edgeData, rotationSymmetry, weights, new SplittableRandom(seed), storage, null);
+  }
+  
+  /**
+   * A WaveFunction constructor for a tileset with labelled sockets, interned by a SocketTable
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param sockets the table the labels are interned in, and which says what each socket connects to
+   * @param edgeLabels a matrix of the socket labels of each tile, clockwise from the top
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param seed the seed of the random choices
+   */
+  public WaveFunction(int width, int height, SocketTable sockets, String[][] edgeLabels, int[] rotationSymmetry, int[] weights,
+                      long seed)
+  {
+    this(width, height, sockets.intern(edgeLabels), rotationSymmetry, weights, new SplittableRandom(seed), null,
+         sockets.getReverse());
+  }
+  
+  private WaveFunction(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights, SplittableRandom random,
+                       GridStorage storage)
+  {
+    this(width, height, edgeData, rotationSymmetry, weights, random, storage, null);
+  }
+  
+  private WaveFunction(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights, SplittableRandom random,
+                       GridStorage storage, int[] socketReverse)
+  {
+    this.random = random;
+    this.storage = storage;
+    this.socketReverse = socketReverse;
     this.width = width;
     this.height = height;
-    grid = new Superposition[this.width*this.height];
     
     this.edgeData = new int[edgeData.length][edgeData[0].length];
     for (int i = 0; i < edgeData.length; i++)
@@ -60,6 +198,59 @@ public class WaveFunction
       }
     }
     
+    this.rotationSymmetry = Arrays.copyOf(rotationSymmetry, rotationSymmetry.length);
+    
+    // safely importing the weights
+    this.weights = new int[weights.length];
+    for (int i = 0; i < weights.length; i++)
+    {
+      this.weights[i] = weights[i];
+    }
+    
+    // a tileset compiled before is taken from the cache, skipping the analysis.
+    // The cache only knows 3 bit sockets, so labelled tilesets are always compiled
+    RulesetCache cache = socketReverse == null ? rulesetCache : null;
+    RulesetCache.Tileset compiled = cache == null ? null : cache.load(this.edgeData, rotationSymmetry, this.weights);
+    if (compiled != null)
+    {
+      states = compiled.states;
+      stateWeights = compiled.stateWeights;
+      rules = compiled.rules;
+    }
+    else
+    {
+      compile(rotationSymmetry);
+      if (cache != null)
+        cache.store(this.edgeData, rotationSymmetry, this.weights, new RulesetCache.Tileset(states, stateWeights, rules));
+    }
+    
+    stateWeightLogWeights = new double[states.length];
+    for (int s = 0; s < states.length; s++)
+    {
+      double w = stateWeights[s];
+      stateWeightLogWeights[s] = w > 0 ? w * Math.log(w) : 0;
+      totalWeight += stateWeights[s];
+      totalWeightLogWeight += stateWeightLogWeights[s];
+    }
+    
+    allocate();
+  }
+  
+  /**
+   * Sets the cache compiled tilesets are kept in and taken from by every WaveFunction made afterwards
+   * @param cache the cache, or null to analyze every tileset again
+   */
+  public static void setRulesetCache(RulesetCache cache)
+  {
+    rulesetCache = cache;
+  }
+  
+  /**
+   * Expands the tiles into their rotated States, reduces them, then analyzes them into the compiled rules
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   */
+  private void compile(int[] rotationSymmetry)
+  {
     int count = 0;
     for (int i = 0; i < rotationSymmetry.length; i++)
     {
@@ -87,274 +278,1373 @@ public class WaveFunction
       }
     }
     
+    // merge duplicate States and drop the ones that can never be picked, before any rules are made for them
+    canonicalize();
+    
     // generate the adjacency rules within each State in states
+    State.analyzeAll(states, socketReverse);
+    rules = new Ruleset(states);
+  }
+  
+  /**
+   * Reduces states to the States a grid can tell apart, and gives each the weight it is picked by.
+   * Rotations of a tile with the same edge vector are merged into the first of them, which takes the weight of all of them.
+   * States of a tile with a weight of 0 are dropped, as they would only ever be left in a cell by propagation,
+   * unless every tile has a weight of 0. getMapping lists the States that are left, so values index into them as before.
+   */
+  private void canonicalize()
+  {
+    boolean anyWeight = false;
     for (State state : states)
     {
-      state.analyze(states);
+      if (weights[state.getReference()] > 0)
+        anyWeight = true;
     }
     
-    // populate the grid using the total number of States in states
-    for (int i = 0; i < grid.length; i++)
+    State[] kept = new State[states.length];
+    double[] keptWeights = new double[states.length];
+    int count = 0;
+    for (State state : states)
     {
-        grid[i] = new Superposition(states.length);
+      int w = weights[state.getReference()];
+      if (anyWeight && w <= 0)
+        continue;
+      
+      int same = -1;
+      for (int k = 0; k < count && same < 0; k++)
+      {
+        if (kept[k].getReference() == state.getReference() && sameEdges(kept[k], state))
+          same = k;
+      }
+      
+      if (same >= 0)
+      {
+        keptWeights[same] += w;
+      }
+      else
+      {
+        kept[count] = state;
+        keptWeights[count] = w;
+        count++;
+      }
     }
     
-    // safely importing the weights
-    this.weights = new int[weights.length];
-    for (int i = 0; i < weights.length; i++)
+    states = Arrays.copyOf(kept, count);
+    stateWeights = Arrays.copyOf(keptWeights, count);
+  }
+  
+  private static boolean sameEdges(State a, State b)
+  {
+    for (int i = 0; i < 4; i++)
     {
-      this.weights[i] = weights[i];
+      if (a.getEdge(i) != b.getEdge(i))
+        return false;
     }
+    return true;
   }
   
   /**
-   * Collapses every Superposition in the grid
+   * A WaveFunction constructor for another grid of the same tileset, sharing the States and compiled rules of a template
+   * @param template the WaveFunction whose tileset to use
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param seed the seed of the random choices
    */
-  public void collapse()
+  WaveFunction(WaveFunction template, int width, int height, long seed)
   {
-    for (int i = 0; i < grid.length; i++)
+    this.random = new SplittableRandom(seed);
+    this.width = width;
+    this.height = height;
+    
+    this.edgeData = template.edgeData;
+    this.states = template.states;
+    this.rules = template.rules;
+    this.rotationSymmetry = template.rotationSymmetry;
+    this.weights = template.weights;
+    this.socketReverse = template.socketReverse;
+    this.stateWeights = template.stateWeights;
+    this.stateWeightLogWeights = template.stateWeightLogWeights;
+    this.totalWeight = template.totalWeight;
+    this.totalWeightLogWeight = template.totalWeightLogWeight;
+    
+    allocate();
+  }
+  
+  /**
+   * Allocates the values of the grid. The buffers used to collapse it one cell at a time are left to allocateSolver
+   */
+  private void allocate()
+  {
+    if (storage != null)
     {
-      collapseOnce();
+      if (storage.size() < width * height)
+      {
+        throw new IllegalArgumentException("The storage holds " + storage.size() + " cells, not " + width * height + ".");
+      }
+      startGeneration();
+      storage.fill(-1);
+      return;
     }
+    
+    values = new int[width * height];
+    startGeneration();
   }
   
   /**
-   * Finds and chooses a single Superposition with the least entropy to collapse
+   * Allocates the grid and the buffers used to collapse it one cell at a time, then initializes it,
+   * the first time they are needed. A grid only collapsed in blocks by collapseParallel never needs them,
+   * the blocks having their own, and its values are set straight into values
    */
-  public void collapseOnce()
+  private void allocateSolver()
   {
-    // Copy the array, to be safe
-    Superposition[] copy = grid.clone();
-    
-    // Sort the Copy
-    Arrays.sort(copy, new SortByOptionsLength());
-    
-    // remove Superpositions that are already collapsed
-    int startIndex = 0;
-    while (startIndex < copy.length - 1 && copy[startIndex].isCollapsed())
+    if (grid != null || storage != null)
     {
-      startIndex++;
+      return;
     }
     
-    // Trim the sorted copy for array of Superpositions with least entropy
-    int length = copy[startIndex].getOptions().size();
-    int index = startIndex;
-    while (index < copy.length && copy[index].getOptions().size() <= length)
+    // populate the grid using the total number of States in states
+    grid = new Superposition[this.width*this.height];
+    for (int i = 0; i < grid.length; i++)
     {
-      index++;
+        grid[i] = new Superposition(states.length);
     }
-    Superposition[] slicedCopy = Arrays.copyOfRange(copy, startIndex, index);
     
-    // There *can* be errors, here, no-op
-    if (slicedCopy.length == 0)
+    noise = new double[grid.length];
+    sumWeights = new double[grid.length];
+    sumWeightLogWeights = new double[grid.length];
+    entropy = new EntropyHeap(grid.length);
+    compatible = new int[grid.length * states.length * 4];
+    
+    trailCells = new int[grid.length];
+    trailStates = new int[grid.length];
+    trailPropagated = new boolean[grid.length];
+    pending = new int[grid.length];
+    decisionCells = new int[maxBacktrackDepth];
+    decisionStates = new int[maxBacktrackDepth];
+    decisionTrail = new int[maxBacktrackDepth];
+    
+    if (!initialize())
     {
-      System.out.println("Grid is fully collapsed.");
-      return;
+      fail();
+    }
+  }
+  
+  /**
+   * Sets every cell back to all of its options, then removes the States that cannot connect to anything on some edge
+   * @return false if the rules leave some cell without any option before the first collapse
+   */
+  private boolean initialize()
+  {
+    long start = System.nanoTime();
+    entropy.clear();
+    for (int i = 0; i < grid.length; i++)
+    {
+      grid[i].fill();
+      noise[i] = random.nextDouble() * NOISE;
+      sumWeights[i] = totalWeight;
+      sumWeightLogWeights[i] = totalWeightLogWeight;
+      updateEntropy(i);
     }
     
-    // Pick one of the cells in the sliced copy(randomly), collapse it, pick one of its options, and setNewOptions for that new sole option
-    int randomIndex = (int)(Math.random()*slicedCopy.length);    // pick a cell in the copy
-    
-    // Picking a random possible index for the options of the Superposition, based on their weights
-    int randomOptionsIndex = 0;
-    int totalWeight = 0;
-    for (int each : slicedCopy[randomIndex].getOptions())
+    // every State starts supported by every option of the neighbor it can connect to
+    int numStates = states.length;
+    for (int cell = 0; cell < grid.length; cell++)
     {
-      totalWeight += weights[states[each].getReference()];
+      for (int s = 0; s < numStates; s++)
+      {
+        int base = (cell * numStates + s) * 4;
+        for (int direction = 0; direction < 4; direction++)
+        {
+          compatible[base + direction] = rules.getCount(direction, s);
+        }
+      }
     }
-    int r = (int)(Math.random()*totalWeight);
-    int sum = 0;
-    while (r >= sum && randomOptionsIndex < slicedCopy[randomIndex].getOptions().size())
+    copyNanos += System.nanoTime() - start;
+    
+    trailCount = 0;
+    pendingCount = 0;
+    decisionCount = 0;
+    attemptBacktracks = 0;
+    leastUncollapsed = grid.length;
+    contradiction = false;
+    disconnected = false;
+    if (connected && !connectivity.track())
     {
-      sum+=weights[states[slicedCopy[randomIndex].getOption(randomOptionsIndex)].getReference()];
-      randomOptionsIndex++;
+      contradiction = true;
     }
-    randomOptionsIndex -= 1;
-   
-    // Assigning the chosen item 
-    ArrayList<Integer> temp = new ArrayList<Integer>();
-    temp.add(slicedCopy[randomIndex].getOptions().get(randomOptionsIndex));
-    slicedCopy[randomIndex].setNewOptions(temp);
     
-    // Now, create a newArray with neighbor's possible values being changed.
-    Superposition[] newArray = new Superposition[width*height];
-    for (int i = 0; i < height; i++)
+    // States that cannot connect to anything on some edge are removed before the first collapse
+    for (int cell = 0; cell < grid.length; cell++)
     {
-      for (int j = 0; j < width; j++)
+      for (int direction = 0; direction < 4; direction++)
       {
-        index = j+i*width;
-        
-        newArray[index] = grid[index];
-        
-        if (!grid[index].isCollapsed())
+        if (neighbor(cell, direction) < 0)
+          continue;
+        for (int s = 0; s < numStates; s++)
         {
-          ArrayList<Integer> options = new ArrayList<Integer>();
-          for (int o = 0; o<states.length; o++)
-            options.add(o);
-          
-          // Check above
-          if (i > 0)
-          {
-            Superposition up = grid[j + (i-1) * width];
-            ArrayList<Integer> validOptions = new ArrayList<Integer>();
-            for (int option : up.getOptions())
-            {
-              ArrayList<Integer> valid = states[option].getDown(); // Pass by Reference
-              for (int validOption : valid)
-                validOptions.add(validOption);
-            }
-            checkValid(options, validOptions); // options is passed by reference
-          }
-          
-          // Check right
-          if (j < width - 1)
-          {
-            Superposition right = grid[j + 1 + i * width];
-            ArrayList<Integer> validOptions = new ArrayList<Integer>();
-            for (int option : right.getOptions())
-            {
-              ArrayList<Integer> valid = states[option].getLeft(); // Pass by Reference
-              for (int validOption : valid)
-                validOptions.add(validOption);
-            }
-            checkValid(options, validOptions); // options is passed by reference
-          }
-          
-          // Check below
-          if (i < height - 1)
+          if (rules.getCount(direction, s) == 0)
           {
-            Superposition down = grid[j + (i+1) * width];
-            ArrayList<Integer> validOptions = new ArrayList<Integer>();
-            for (int option : down.getOptions())
-            {
-              ArrayList<Integer> valid = states[option].getUp(); // Pass by Reference
-              for (int validOption : valid)
-                validOptions.add(validOption);
-            }
-            checkValid(options, validOptions); // options is passed by reference
+            ban(cell, s);
           }
-          
-          // Check Left
-          if (j > 0)
-          {
-            Superposition left = grid[j - 1 + i * width];
-            ArrayList<Integer> validOptions = new ArrayList<Integer>();
-            for (int option : left.getOptions())
-            {
-              ArrayList<Integer> valid = states[option].getRight(); // Pass by Reference
-              for (int validOption : valid)
-                validOptions.add(validOption);
-            }
-            checkValid(options, validOptions); // options is passed by reference
-          }
-          
-          newArray[index].setNewOptions(options);
         }
       }
     }
     
-    // Push the Superpositions of the newArray into the old array
-    for (int i = 0; i<grid.length; i++)
+    if (restrictions != null)
     {
-      grid[i] = new Superposition(newArray[i]);
+      for (int cell = 0; cell < grid.length; cell++)
+      {
+        applyRestriction(cell);
+      }
     }
+    boolean consistent = propagate();
     
-    /*
-    // print the grid's option sizes 
-    // a Debugging section
-    for (int i = 0; i < height; i++)
+    // nothing before the first decision is ever undone
+    trailCount = 0;
+    return consistent;
+  }
+  
+  /**
+   * Restricts a cell to a set of States before the grid is collapsed. The restriction is propagated right away,
+   * kept through restarts, and never undone by backtracking. Restricting a cell twice keeps the States allowed by both.
+   * Restrictions that cannot all be met fail the grid right away, as constrain does, as no restart could meet them either.
+   * @param index the grid index of the cell
+   * @param allowedStates the State indices the cell may still become
+   * @return false if the grid has failed, leaving some cell without any option
+   */
+  public boolean restrict(int index, int[] allowedStates)
+  {
+    long[] mask = new long[Superposition.wordsFor(states.length)];
+    for (int state : allowedStates)
     {
-      for (int j = 0; j < width; j++)
-      {
-        System.out.print(grid[j+i*width].getOptions().size() + " ");
-      }
-      System.out.println();
-    }*/
+      mask[state >>> 6] |= 1L << state;
+    }
+    return restrict(index, mask);
   }
   
   /**
-   * A method to remove invalid values in an array by-reference
-   * @param array the ArrayList of integers to check
-   * @param valid the ArrayList of valid integers the array can hold
+   * Restricts a cell to a bitset of States before the grid is collapsed, as restrict(int, int[])
+   * @param index the grid index of the cell
+   * @param mask a bitset of the State indices the cell may still become
+   * @return false if the grid has failed
    */
-  private void checkValid(ArrayList<Integer> array, ArrayList<Integer> valid)
+  boolean restrict(int index, long[] mask)
   {
-    for (int i = array.size() - 1; i >= 0; i--)  // loop through the array's elements
+    recordRestriction(index, mask);
+    
+    // the blocks of a stored grid apply the restrictions when they are collapsed
+    if (failed || storage != null)
     {
-      if (!valid.contains(array.get(i)))    // if the element is not in valid, 
-      {
-        array.remove(i);                    // remove it from the array
-      }
+      return !failed;
     }
+    allocateSolver();
+    if (failed)
+    {
+      return false;
+    }
+    applyRestriction(index);
+    boolean consistent = propagate();
+    
+    // a restriction is part of the starting grid, not a decision
+    trailCount = 0;
+    decisionCount = 0;
+    if (!consistent)
+    {
+      contradictions++;
+      fail();
+    }
+    return consistent;
   }
   
   /**
-   * A method to return a mapping of State indices to their original reference value and the number of rotations
-   * @return an integer array of 2-tuples, the first value being the reference value, the second the number of rotations
+   * Restricts cells to the States a set of Constraints allows before the grid is collapsed, as restrict,
+   * but propagating all of them together, once. Constraints that cannot all be met fail the grid right away,
+   * as no restart could meet them either. Connected Constraints are kept through restarts like restrictions,
+   * and backtrack out of any choice that would leave the grid unconnected, though not in a grid collapsed in blocks,
+   * by collapseParallel or in a GridStorage.
+   * @param constraints the constraints to apply
+   * @return false if the constraints cannot be met, leaving some cell without any option or the grid unconnected
    */
-  public int[][] getMapping()
+  public boolean constrain(Constraints constraints)
   {
-    int[][] mapping = new int[states.length][2];
+    long[][] masks = constraints.resolve(width, height, states);
+    for (int cell = 0; cell < masks.length; cell++)
+    {
+      if (masks[cell] != null)
+        recordRestriction(cell, masks[cell]);
+    }
     
-    for (int i = 0; i < states.length; i++)
+    if (failed || storage != null)
     {
-      mapping[i][0] = states[i].getReference();       // The original reference
-      mapping[i][1] = states[i].getNumRotations();    // The number of rotations
+      return !failed;
+    }
+    allocateSolver();
+    if (failed)
+    {
+      return false;
     }
+    if (constraints.isConnected() && !connected)
+    {
+      connected = true;
+      if (connectivity == null)
+        connectivity = new Connectivity(width, height, states, grid);
+      if (!connectivity.track())
+        contradiction = true;
+    }
+    for (int cell = 0; cell < masks.length; cell++)
+    {
+      if (masks[cell] != null)
+        applyRestriction(cell);
+    }
+    boolean consistent = propagate();
     
-    return mapping;
+    // the constraints are part of the starting grid, not a decision
+    trailCount = 0;
+    decisionCount = 0;
+    if (!consistent)
+    {
+      contradictions++;
+      fail();
+    }
+    return consistent;
   }
   
   /**
-   * Prints the grid, using its integer representation, to the System console.
-   * If an N is printed, the Superposition is not yet collapsed
-   * If an integer is printed, the Superposition is collapsed to that index of an internal array of States
+   * Keeps a cell's restriction, combined with any it already had, so every restart applies it again
    */
-  public void printGrid()
+  private void recordRestriction(int index, long[] mask)
   {
-    for (int i = 0; i < height; i++)
+    mask = mask.clone();
+    if (restrictions == null)
     {
-      for (int j = 0; j < width; j++)
+      restrictions = new long[width * height][];
+    }
+    
+    if (restrictions[index] != null)
+    {
+      for (int w = 0; w < mask.length; w++)
       {
-        if (grid[j+i*width].isCollapsed())
-          System.out.print(grid[j+i*width].getOptions().get(0) + " ");
-        else
-          System.out.print("N ");
+        mask[w] &= restrictions[index][w];
       }
-      System.out.println();
     }
+    restrictions[index] = mask;
   }
   
   /**
-   * Returns an integer representation of the grid
-   * @return -1 for an uncollapsed superposition, an integer if the superposition is collapsed
+   * Returns the bitset of States a cell was restricted to
+   * @param index the grid index of the cell
+   * @return the bitset, or null if the cell was never restricted
    */
-  public int[] getGrid()
+  long[] getRestriction(int index)
   {
-    int[] output = new int[grid.length];
-    
-    for (int i = 0; i < output.length; i++)
+    return restrictions == null ? null : restrictions[index];
+  }
+  
+  /**
+   * Removes the States a cell's restriction does not allow
+   * @param cell the grid index of the cell
+   */
+  private void applyRestriction(int cell)
+  {
+    long[] mask = restrictions[cell];
+    if (mask == null)
     {
-      getSuperpositionValue(i);
+      return;
     }
     
-    return output;
+    Superposition options = grid[cell];
+    for (int option = options.nextOption(0); option >= 0; option = options.nextOption(option + 1))
+    {
+      if ((mask[option >>> 6] & (1L << option)) == 0)
+      {
+        ban(cell, option);
+      }
+    }
   }
   
   /**
-   * Returns an integer representation of a specific Superposition in the grid
-   * @param index the index to look at
-   * @return -1 for an uncollapsed superposition, an integer if the superposition is collapsed
+   * Returns the compiled adjacency rules of the States
+   * @return the Ruleset, shared by reference
    */
-  public int getSuperpositionValue(int index)
+  public Ruleset getRules()
+  {
+    return rules;
+  }
+  
+  /**
+   * Collapses every Superposition in the grid
+   */
+  public void collapse()
   {
-    if (grid[index].isCollapsed())
+    if (storage != null)
     {
-      return grid[index].getOptions().get(0);
+      collapseParallel(STORAGE_BLOCK_SIZE);
+      storageCollapsed = true;
+      finishGeneration();
+      return;
     }
-    else
+    allocateSolver();
+    while (!entropy.isEmpty())
     {
-      return -1;
+      collapseOnce();
     }
+    finishGeneration();
+  }
+  
+  /**
+   * Starts the grid over from all of its options, so it can be collapsed again. The compiled rules, the buffers
+   * and the restrictions are kept, and the random choices carry on from where they were, so nothing is allocated.
+   * The counters of contradictions, backtracks and restarts start over too.
+   */
+  public void reset()
+  {
+    contradictions = 0;
+    backtracks = 0;
+    restarts = 0;
+    failed = false;
+    startGeneration();
+    
+    if (storage != null)
+    {
+      storage.fill(-1);
+      storageCollapsed = false;
+      return;
+    }
+    
+    // a grid that was never collapsed one cell at a time is initialized when it first is
+    if (grid != null && !initialize())
+    {
+      fail();
+    }
+  }
+  
+  /**
+   * Returns a WaveFunction for a grid, resetting an old one in place when it has the same size and tileset,
+   * so repeated grids of one kind reuse its rules and buffers. The old one keeps its backtracking and restart settings,
+   * but not its restrictions or connectivity, so constraints have to be applied again
+   * @param old the WaveFunction to reuse, or null
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @return the old WaveFunction, reset, or a new one
+   */
+  public static WaveFunction reuse(WaveFunction old, int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights)
+  {
+    if (!canReuse(old, width, height, edgeData, rotationSymmetry, weights))
+    {
+      return new WaveFunction(width, height, edgeData, rotationSymmetry, weights);
+    }
+    old.clearRestrictions();
+    old.reset();
+    return old;
+  }
+  
+  /**
+   * As reuse, regenerating the old WaveFunction with a seed, or making a new one with that seed
+   * @param old the WaveFunction to reuse, or null
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param seed the seed of the random choices
+   * @return the old WaveFunction, regenerated, or a new one
+   */
+  public static WaveFunction reuse(WaveFunction old, int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights,
+                                   long seed)
+  {
+    if (!canReuse(old, width, height, edgeData, rotationSymmetry, weights))
+    {
+      return new WaveFunction(width, height, edgeData, rotationSymmetry, weights, seed);
+    }
+    old.clearRestrictions();
+    old.regenerate(seed);
+    return old;
+  }
+  
+  /**
+   * Forgets the restrictions and connectivity of the grid, so the next reset or regenerate starts without them
+   */
+  void clearRestrictions()
+  {
+    restrictions = null;
+    connected = false;
+  }
+  
+  private static boolean canReuse(WaveFunction old, int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights)
+  {
+    return old != null && old.storage == null && old.socketReverse == null
+        && old.width == width && old.height == height
+        && Arrays.deepEquals(old.edgeData, edgeData)
+        && Arrays.equals(old.rotationSymmetry, rotationSymmetry)
+        && Arrays.equals(old.weights, weights);
+  }
+  
+  /**
+   * Starts the grid over with a new seed, as reset. The grid then collapses the same as a new WaveFunction of the same seed
+   * @param seed the seed of the random choices
+   */
+  public void regenerate(long seed)
+  {
+    random = new SplittableRandom(seed);
+    reset();
+  }
+  
+  /**
+   * Collapses Superpositions until the grid is collapsed or a budget runs out, so the work can be spread over many calls,
+   * such as one per frame. A grid kept in a GridStorage is collapsed as a whole on the first call.
+   * @param maxCells the most Superpositions to collapse in this call
+   * @param maxMicros the most microseconds to spend in this call, 0 for no limit. At least one Superposition is collapsed
+   * @return true once the grid is fully collapsed, or the WaveFunction gave up on it
+   */
+  public boolean collapseStep(int maxCells, long maxMicros)
+  {
+    if (storage != null)
+    {
+      collapse();
+      return true;
+    }
+    
+    allocateSolver();
+    long deadline = System.nanoTime() + maxMicros * 1000;
+    for (int n = 0; n < maxCells && !entropy.isEmpty(); n++)
+    {
+      collapseOnce();
+      if (maxMicros > 0 && System.nanoTime() - deadline >= 0)
+        break;
+    }
+    if (!entropy.isEmpty())
+      return false;
+    finishGeneration();
+    return true;
+  }
+  
+  /**
+   * Determines if every Superposition in the grid has been collapsed, or the WaveFunction gave up on the grid
+   * @return true if there is nothing left to collapse
+   */
+  public boolean isCollapsed()
+  {
+    if (storage != null)
+      return storageCollapsed || failed;
+    if (grid == null)
+      return finished || failed || width * height == 0;
+    return entropy.isEmpty();
+  }
+  
+  /**
+   * Returns how much of the grid has been collapsed. A contradiction that restarts the grid sets it back
+   * @return the fraction of cells with a single option left, from 0 to 1
+   */
+  public double getProgress()
+  {
+    if (storage != null || grid == null)
+      return isCollapsed() ? 1 : 0;
+    if (width * height == 0)
+      return 1;
+    return 1 - (double) entropy.size() / (width * height);
+  }
+  
+  /**
+   * Collapses every Superposition in the grid on several cores, splitting the grid into square blocks. 
+   * See ParallelCollapse for how the seams between blocks are kept valid.
+   * Unless the grid was restricted or collapsed one cell at a time before, its own buffers for that are never allocated.
+   * @param blockSize the number of rows and columns of each block
+   */
+  public void collapseParallel(int blockSize)
+  {
+    collapseParallel(blockSize, ForkJoinPool.commonPool());
+  }
+  
+  /**
+   * Collapses every Superposition in the grid on the threads of a pool, splitting the grid into square blocks
+   * @param blockSize the number of rows and columns of each block
+   * @param pool the pool to collapse the blocks on
+   */
+  public void collapseParallel(int blockSize, ForkJoinPool pool)
+  {
+    if (failed)
+    {
+      return;
+    }
+    
+    if (!new ParallelCollapse(this, blockSize).collapse(pool))
+    {
+      failed = true;
+      if (entropy != null)
+        entropy.clear();
+    }
+    finishGeneration();
+  }
+  
+  /**
+   * Returns a new seed from the random choices of this WaveFunction, for the WaveFunctions it spreads work over
+   * @return a seed
+   */
+  long nextSeed()
+  {
+    return random.nextLong();
+  }
+  
+  /**
+   * Sets a cell to a State that was collapsed elsewhere, without propagating it
+   * @param index the grid index of the cell
+   * @param state the State index it was collapsed to
+   */
+  void setCollapsed(int index, int state)
+  {
+    if (storage != null)
+    {
+      storage.setValue(index, state);
+      return;
+    }
+    if (grid == null)
+    {
+      values[index] = state;
+      return;
+    }
+    grid[index].setOnly(state);
+    entropy.remove(index);
+  }
+  
+  /**
+   * Finds and chooses a single Superposition with the least entropy to collapse.
+   * A grid kept in a GridStorage is only collapsed as a whole, so this collapses all of it
+   */
+  public void collapseOnce()
+  {
+    if (storage != null)
+    {
+      collapse();
+      return;
+    }
+    allocateSolver();
+    
+    // Take the cell with the least entropy. Ties are broken by each cell's random noise,
+    // so every cell sharing the least entropy is equally likely to be picked.
+    long start = System.nanoTime();
+    int cell = entropy.poll();
+    
+    // There *can* be errors, here, no-op. isCollapsed reports a grid with nothing left to collapse
+    if (cell < 0)
+    {
+      return;
+    }
+    
+    // Picking a random possible option of the Superposition, based on their weights
+    Superposition chosen = grid[cell];
+    double cellWeight = weighOptions(cell);
+    double r = random.nextDouble()*cellWeight;
+    double sum = 0;
+    int option = chosen.nextOption(0);
+    int pick = option;
+    while (r >= sum && option >= 0)
+    {
+      sum += choiceWeights[option];
+      pick = option;
+      option = chosen.nextOption(option + 1);
+    }
+    long picked = System.nanoTime();
+    selectionNanos += picked - start;
+    long copied = copyNanos;
+   
+    // Assigning the chosen item, by removing every other option
+    if (pick >= 0)
+    {
+      cellsCollapsed++;
+      pushDecision(cell, pick);
+      for (option = chosen.nextOption(0); option >= 0; option = chosen.nextOption(option + 1))
+      {
+        if (option != pick)
+        {
+          ban(cell, option);
+        }
+      }
+      
+      if (!propagate())
+      {
+        recover();
+      }
+      else if (entropy.size() < leastUncollapsed)
+      {
+        leastUncollapsed = entropy.size();
+        attemptBacktracks = 0;
+      }
+    }
+    
+    // a restart within the recovery is counted as copying, not propagating
+    propagationNanos += System.nanoTime() - picked - (copyNanos - copied);
+    if (entropy.isEmpty())
+    {
+      finishGeneration();
+    }
+  }
+  
+  /**
+   * Fills choiceWeights with the weight of each option of a cell when choosing it. On a connected grid, an option
+   * that would close off an area gets none while some other option would not, so fewer areas are closed off
+   * for Connectivity to find and backtrack from
+   * @param cell the grid index of the cell
+   * @return the total weight of its options
+   */
+  private double weighOptions(int cell)
+  {
+    if (choiceWeights == null)
+    {
+      choiceWeights = new double[states.length];
+    }
+    
+    Superposition options = grid[cell];
+    double total = 0;
+    for (int each = options.nextOption(0); each >= 0; each = options.nextOption(each + 1))
+    {
+      double weight = stateWeights[each];
+      if (connected && weight > 0 && connectivity.wouldClose(cell, each))
+      {
+        weight = 0;
+      }
+      choiceWeights[each] = weight;
+      total += weight;
+    }
+    
+    // every option closes off an area, so whichever is chosen the grid backtracks
+    if (total == 0 && connected)
+    {
+      for (int each = options.nextOption(0); each >= 0; each = options.nextOption(each + 1))
+      {
+        choiceWeights[each] = stateWeights[each];
+        total += stateWeights[each];
+      }
+    }
+    return total;
+  }
+  
+  /**
+   * Records a decision so that it can be undone, forgetting the older half of the decisions once maxBacktrackDepth are held
+   * @param cell the grid index of the cell being collapsed
+   * @param state the State it is collapsed to
+   */
+  private void pushDecision(int cell, int state)
+  {
+    if (maxBacktrackDepth <= 0)
+    {
+      // nothing will be undone, so the trail does not need to be kept
+      trailCount = 0;
+      return;
+    }
+    
+    if (decisionCount >= maxBacktrackDepth)
+    {
+      // the removals made before the oldest kept decision can no longer be undone
+      int keep = maxBacktrackDepth / 2;
+      int drop = decisionCount - keep;
+      int cut = drop < decisionCount ? decisionTrail[drop] : trailCount;
+      
+      System.arraycopy(trailCells, cut, trailCells, 0, trailCount - cut);
+      System.arraycopy(trailStates, cut, trailStates, 0, trailCount - cut);
+      System.arraycopy(trailPropagated, cut, trailPropagated, 0, trailCount - cut);
+      trailCount -= cut;
+      
+      for (int i = 0; i < keep; i++)
+      {
+        decisionCells[i] = decisionCells[i + drop];
+        decisionStates[i] = decisionStates[i + drop];
+        decisionTrail[i] = decisionTrail[i + drop] - cut;
+      }
+      decisionCount = keep;
+    }
+    
+    if (decisionCount == decisionCells.length)
+    {
+      decisionCells = Arrays.copyOf(decisionCells, maxBacktrackDepth);
+      decisionStates = Arrays.copyOf(decisionStates, maxBacktrackDepth);
+      decisionTrail = Arrays.copyOf(decisionTrail, maxBacktrackDepth);
+    }
+    decisionCells[decisionCount] = cell;
+    decisionStates[decisionCount] = state;
+    decisionTrail[decisionCount] = trailCount;
+    decisionCount++;
+  }
+  
+  /**
+   * Recovers from a contradiction by undoing the latest decision and ruling out the State it chose, 
+   * going further back each time that still leads to a contradiction.
+   * Once the kept decisions run out, or maxBacktracks were made since the grid was last the closest to collapsed
+   * it has been in this attempt, the grid is restarted instead.
+   */
+  private void recover()
+  {
+    contradictions++;
+    
+    // the event is only made while it is recorded, so recovering allocates nothing otherwise
+    ContradictionEvent event = null;
+    if (ContradictionEvent.TYPE.isEnabled())
+    {
+      event = new ContradictionEvent();
+      event.begin();
+      event.decisions = decisionCount;
+    }
+    while (true)
+    {
+      if (decisionCount == 0 || attemptBacktracks >= maxBacktracks)
+      {
+        restart();
+        if (event != null)
+        {
+          event.restarted = true;
+          event.commit();
+        }
+        return;
+      }
+      
+      // a grid that can no longer be connected goes back to the latest decision around the area it closed off,
+      // as the decisions made elsewhere since then did not close it off
+      int target = decisionCount - 1;
+      if (disconnected)
+      {
+        int near = target;
+        while (near >= 0 && !connectivity.isNearClosedOff(decisionCells[near]))
+        {
+          near--;
+        }
+        if (near >= 0)
+          target = near;
+        connectivity.forgetClosedOff();
+        disconnected = false;
+      }
+      
+      backtracks += decisionCount - target;
+      attemptBacktracks += decisionCount - target;
+      if (event != null)
+        event.backtracks += decisionCount - target;
+      decisionCount = target;
+      undo(decisionTrail[decisionCount]);
+      
+      ban(decisionCells[decisionCount], decisionStates[decisionCount]);
+      if (propagate())
+      {
+        if (event != null)
+          event.commit();
+        return;
+      }
+      contradictions++;
+    }
+  }
+  
+  /**
+   * Starts the grid over from all of its options, giving up after maxRestarts
+   */
+  private void restart()
+  {
+    while (restarts < maxRestarts)
+    {
+      restarts++;
+      if (initialize())
+      {
+        return;
+      }
+    }
+    fail();
+  }
+  
+  /**
+   * Gives up on the grid. The cells that were not collapsed are left at -1
+   */
+  private void fail()
+  {
+    failed = true;
+    if (entropy != null)
+      entropy.clear();
+    System.out.println("WaveFunction could not be collapsed after " + restarts + " restarts.");
+    finishGeneration();
+  }
+  
+  /**
+   * Undoes every removal on the trail after a position, restoring the options, entropy and support counts of those cells
+   * @param position the trail position to go back to
+   */
+  private void undo(int position)
+  {
+    int numStates = states.length;
+    while (trailCount > position)
+    {
+      trailCount--;
+      int cell = trailCells[trailCount];
+      int state = trailStates[trailCount];
+      
+      if (trailPropagated[trailCount])
+      {
+        for (int direction = 0; direction < 4; direction++)
+        {
+          int other = neighbor(cell, direction);
+          if (other < 0)
+            continue;
+          
+          int facing = Ruleset.opposite(direction);
+          int[] adjacent = rules.getAdjacent(direction);
+          int end = rules.getEnd(direction, state);
+          for (int k = rules.getStart(direction, state); k < end; k++)
+          {
+            compatible[(other * numStates + adjacent[k]) * 4 + facing]++;
+          }
+        }
+      }
+      
+      grid[cell].add(state);
+      if (connected)
+      {
+        connectivity.restore(cell, state);
+      }
+      sumWeights[cell] += stateWeights[state];
+      sumWeightLogWeights[cell] += stateWeightLogWeights[state];
+      updateEntropy(cell);
+    }
+  }
+  
+  /**
+   * Returns the grid index of the cell on one side of another cell
+   * @param cell the grid index of the cell
+   * @param direction one of Ruleset.UP, RIGHT, DOWN or LEFT
+   * @return the grid index of the neighbor, or -1 if the cell is on that edge of the grid
+   */
+  private int neighbor(int cell, int direction)
+  {
+    switch (direction)
+    {
+      case Ruleset.UP:
+        return cell >= width ? cell - width : -1;
+      case Ruleset.RIGHT:
+        return cell % width < width - 1 ? cell + 1 : -1;
+      case Ruleset.DOWN:
+        return cell < grid.length - width ? cell + width : -1;
+      default:
+        return cell % width > 0 ? cell - 1 : -1;
+    }
+  }
+  
+  /**
+   * Removes a State from the options of a cell, records it on the trail and pushes it onto the propagation worklist.
+   * Removing the last option of a cell, or an option the grid cannot be connected without, flags a contradiction.
+   * @param cell the grid index of the cell
+   * @param state the State index to remove
+   */
+  private void ban(int cell, int state)
+  {
+    if (!grid[cell].remove(state))
+    {
+      return;
+    }
+    
+    if (trailCount == trailCells.length)
+    {
+      int capacity = trailCount * 2;
+      trailCells = Arrays.copyOf(trailCells, capacity);
+      trailStates = Arrays.copyOf(trailStates, capacity);
+      trailPropagated = Arrays.copyOf(trailPropagated, capacity);
+      pending = Arrays.copyOf(pending, capacity);
+    }
+    trailCells[trailCount] = cell;
+    trailStates[trailCount] = state;
+    trailPropagated[trailCount] = false;
+    pending[pendingCount++] = trailCount;
+    trailCount++;
+    optionsRemoved++;
+    
+    sumWeights[cell] -= stateWeights[state];
+    sumWeightLogWeights[cell] -= stateWeightLogWeights[state];
+    updateEntropy(cell);
+    
+    if (grid[cell].size() == 0)
+    {
+      contradiction = true;
+    }
+    if (connected && !connectivity.remove(cell, state))
+    {
+      contradiction = true;
+      disconnected = true;
+    }
+  }
+  
+  /**
+   * Propagates every removal in the worklist to the neighbors of its cell until the grid is arc consistent.
+   * Removing a State takes one support away from each State it allowed next to it, and a neighbor's State
+   * is only removed once it has no support left on that side, so each removal costs O(1) amortized work.
+   * Propagation stops as soon as a cell runs out of options.
+   * @return false if a contradiction was found
+   */
+  private boolean propagate()
+  {
+    int numStates = states.length;
+    while (pendingCount > 0 && !contradiction)
+    {
+      int entry = pending[--pendingCount];
+      int cell = trailCells[entry];
+      int state = trailStates[entry];
+      
+      for (int direction = 0; direction < 4; direction++)
+      {
+        int other = neighbor(cell, direction);
+        if (other < 0)
+          continue;
+        
+        // the neighbor's States that this State allowed lose one support on the side facing the cell
+        int facing = Ruleset.opposite(direction);
+        int[] adjacent = rules.getAdjacent(direction);
+        int end = rules.getEnd(direction, state);
+        for (int k = rules.getStart(direction, state); k < end; k++)
+        {
+          int s = adjacent[k];
+          if (--compatible[(other * numStates + s) * 4 + facing] == 0)
+          {
+            ban(other, s);
+          }
+        }
+      }
+      trailPropagated[entry] = true;
+    }
+    
+    /*
+    // print the grid's option sizes 
+    // a Debugging section
+    for (int i = 0; i < height; i++)
+    {
+      for (int j = 0; j < width; j++)
+      {
+        System.out.print(grid[j+i*width].size() + " ");
+      }
+      System.out.println();
+    }*/
+    
+    if (contradiction)
+    {
+      pendingCount = 0;
+      contradiction = false;
+      return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Returns the weighted Shannon entropy of a cell, log(sum w) - sum(w*log w) / sum w, from its running sums
+   * @param cell the grid index of the cell
+   * @return the entropy of the cell, 0 if none of its options has any weight
+   */
+  private double getEntropy(int cell)
+  {
+    double sum = sumWeights[cell];
+    if (sum <= 0)
+    {
+      return 0;
+    }
+    return Math.log(sum) - sumWeightLogWeights[cell] / sum;
+  }
+  
+  /**
+   * Moves a cell within the entropy heap after its options changed, removing it once it has one option or none left
+   * @param cell the grid index of the cell
+   */
+  private void updateEntropy(int cell)
+  {
+    int size = grid[cell].size();
+    if (size <= 1)
+    {
+      entropy.remove(cell);
+    }
+    else
+    {
+      entropy.update(cell, getEntropy(cell) + noise[cell]);
+    }
+  }
+  
+  /**
+   * Sets how many of the latest decisions are kept so they can be undone on a contradiction. 0 only restarts.
+   * @param maxBacktrackDepth the number of decisions to keep
+   */
+  public void setMaxBacktrackDepth(int maxBacktrackDepth)
+  {
+    this.maxBacktrackDepth = maxBacktrackDepth;
+  }
+  
+  /**
+   * Sets how many decisions can be undone without getting any closer to a collapsed grid before it is restarted instead
+   * @param maxBacktracks the number of backtracks allowed between restarts, or since the grid got closer to collapsed
+   */
+  public void setMaxBacktracks(int maxBacktracks)
+  {
+    this.maxBacktracks = maxBacktracks;
+  }
+  
+  /**
+   * Sets how many times the grid can be restarted before the WaveFunction gives up
+   * @param maxRestarts the number of restarts allowed
+   */
+  public void setMaxRestarts(int maxRestarts)
+  {
+    this.maxRestarts = maxRestarts;
+  }
+  
+  /**
+   * Returns the number of contradictions found, a cell being left without any option
+   * @return the number of contradictions
+   */
+  public int getContradictions()
+  {
+    return contradictions;
+  }
+  
+  /**
+   * Returns the number of decisions undone to recover from contradictions
+   * @return the number of backtracks
+   */
+  public int getBacktracks()
+  {
+    return backtracks;
+  }
+  
+  /**
+   * Returns the number of times the grid was started over
+   * @return the number of restarts
+   */
+  public int getRestarts()
+  {
+    return restarts;
+  }
+  
+  /**
+   * Returns what generating the current grid has cost so far. Call it from the thread collapsing the grid, or once it is done
+   * @return a snapshot of the grid's metrics
+   */
+  public GenerationMetrics getMetrics()
+  {
+    return new GenerationMetrics(1, failed ? 1 : 0, cellsCollapsed, optionsRemoved, contradictions, backtracks, restarts,
+                                 selectionNanos, propagationNanos, copyNanos);
+  }
+  
+  /**
+   * Adds the metrics of a region collapsed on its own WaveFunction to this grid's. Regions can finish on several threads at once
+   * @param region the WaveFunction of the region
+   */
+  synchronized void addMetrics(WaveFunction region)
+  {
+    cellsCollapsed += region.cellsCollapsed;
+    optionsRemoved += region.optionsRemoved;
+    contradictions += region.contradictions;
+    backtracks += region.backtracks;
+    restarts += region.restarts;
+    selectionNanos += region.selectionNanos;
+    propagationNanos += region.propagationNanos;
+    copyNanos += region.copyNanos;
+  }
+  
+  /**
+   * Adds time spent copying collapsed values into this grid from elsewhere
+   * @param nanos the time in nanoseconds
+   */
+  synchronized void addCopyNanos(long nanos)
+  {
+    copyNanos += nanos;
+  }
+  
+  /**
+   * Starts counting the metrics of a new grid
+   */
+  private void startGeneration()
+  {
+    cellsCollapsed = 0;
+    optionsRemoved = 0;
+    selectionNanos = 0;
+    propagationNanos = 0;
+    copyNanos = 0;
+    finished = false;
+    if (values != null)
+      Arrays.fill(values, -1);
+    generationEvent = null;
+    if (GenerationEvent.TYPE.isEnabled())
+    {
+      generationEvent = new GenerationEvent();
+      generationEvent.begin();
+    }
+  }
+  
+  /**
+   * Fills the values of the grid, then reports its metrics to the totals and the Flight Recorder,
+   * once, when it is collapsed or given up on
+   */
+  private void finishGeneration()
+  {
+    if (finished)
+    {
+      return;
+    }
+    finished = true;
+    
+    if (values != null && grid != null)
+    {
+      long start = System.nanoTime();
+      copyGrid(values, 0);
+      copyNanos += System.nanoTime() - start;
+    }
+    
+    if (!reportsMetrics)
+    {
+      return;
+    }
+    GenerationMetrics.addToTotals(failed, cellsCollapsed, optionsRemoved, contradictions, backtracks, restarts,
+                                  selectionNanos, propagationNanos, copyNanos);
+    if (generationEvent != null)
+    {
+      generationEvent.report(width, height, states.length, getMetrics());
+    }
+  }
+  
+  /**
+   * Determines if the WaveFunction gave up on collapsing the grid after maxRestarts
+   * @return true if the grid could not be collapsed
+   */
+  public boolean isFailed()
+  {
+    return failed;
+  }
+  
+  /**
+   * A method to return a mapping of State indices to their original reference value and the number of rotations
+   * @return an integer array of 2-tuples, the first value being the reference value, the second the number of rotations
+   */
+  public int[][] getMapping()
+  {
+    int[][] mapping = new int[states.length][2];
+    
+    for (int i = 0; i < states.length; i++)
+    {
+      mapping[i][0] = states[i].getReference();       // The original reference
+      mapping[i][1] = states[i].getNumRotations();    // The number of rotations
+    }
+    
+    return mapping;
+  }
+  
+  /**
+   * Prints the grid, using its integer representation, to the System console.
+   * If an N is printed, the Superposition is not yet collapsed
+   * If an integer is printed, the Superposition is collapsed to that index of an internal array of States
+   */
+  public void printGrid()
+  {
+    for (int i = 0; i < height; i++)
+    {
+      for (int j = 0; j < width; j++)
+      {
+        if (getSuperpositionValue(j+i*width) >= 0)
+          System.out.print(getSuperpositionValue(j+i*width) + " ");
+        else
+          System.out.print("N ");
+      }
+      System.out.println();
+    }
+  }
+  
+  /**
+   * Returns an integer representation of the grid
+   * @return -1 for an uncollapsed superposition, an integer if the superposition is collapsed
+   */
+  public int[] getGrid()
+  {
+    int[] output = new int[width * height];
+    copyGrid(output, 0);
+    return output;
+  }
+  
+  /**
+   * Copies the integer representation of the grid into an array, row by row, in one pass
+   * @param output the array to fill, with room for width*height values from the offset
+   * @param offset the index in the array of the first cell
+   */
+  public void copyGrid(int[] output, int offset)
+  {
+    int cells = width * height;
+    if (offset < 0 || output.length - offset < cells)
+    {
+      throw new ArrayIndexOutOfBoundsException("The grid has " + cells + " cells, the array room for " + (output.length - offset) + ".");
+    }
+    
+    if (storage != null)
+    {
+      for (int i = 0; i < cells; i++)
+      {
+        output[offset + i] = storage.getValue(i);
+      }
+      return;
+    }
+    if (grid == null)
+    {
+      System.arraycopy(values, 0, output, offset, cells);
+      return;
+    }
+    for (int i = 0; i < cells; i++)
+    {
+      output[offset + i] = grid[i].getValue();
+    }
+  }
+  
+  /**
+   * Copies the integer representation of the grid into a buffer, row by row, in one pass, from its position onwards
+   * @param output the buffer to fill, with at least width*height values remaining. Its position is moved past them
+   */
+  public void copyGrid(IntBuffer output)
+  {
+    int cells = width * height;
+    if (output.remaining() < cells)
+    {
+      throw new BufferOverflowException();
+    }
+    
+    if (output.hasArray())
+    {
+      copyGrid(output.array(), output.arrayOffset() + output.position());
+      output.position(output.position() + cells);
+      return;
+    }
+    for (int i = 0; i < cells; i++)
+    {
+      output.put(getSuperpositionValue(i));
+    }
+  }
+  
+  /**
+   * Returns a read-only view of the grid's values, row by row, without copying them.
+   * The values are filled once the grid is collapsed or given up on, and are -1 until then.
+   * The view stays valid after reset or regenerate, and shows the values of whichever grid was collapsed last.
+   * A grid kept in a GridStorage has no such values on the heap, so copyGrid has to be used for it instead
+   * @return a read-only buffer of width*height State indices, positioned at the first cell
+   */
+  public IntBuffer getGridView()
+  {
+    if (values == null)
+    {
+      throw new IllegalStateException("A grid kept in a GridStorage has no view, copy it with copyGrid instead.");
+    }
+    
+    // a grid left collapsed by its first propagation never went through a collapse
+    if (!finished && isCollapsed())
+    {
+      finishGeneration();
+    }
+    return IntBuffer.wrap(values).asReadOnlyBuffer();
+  }
+  
+  /**
+   * Returns an integer representation of a specific Superposition in the grid
+   * @param index the index to look at
+   * @return -1 for an uncollapsed superposition, an integer if the superposition is collapsed
+   */
+  public int getSuperpositionValue(int index)
+  {
+    if (storage != null)
+      return storage.getValue(index);
+    if (grid == null)
+      return values[index];
+    return grid[index].getValue();
   }
 }
@@ -0,0 +1,217 @@
+package com.drawing;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * The WaveFunctionBatch class generates many grids of one tileset at once, spreading them over the cores of a ForkJoinPool.
+ * Each grid is generated by its own WaveFunction, seeded from a list of seeds, so the grids do not share any state
+ * and the same seed always generates the same grid.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class WaveFunctionBatch
+{
+  private int width;
+  private int height;
+  private int[][] edgeData;
+  private int[] rotationSymmetry;
+  private int[] weights;
+  private ForkJoinPool pool;
+  
+  // each worker keeps its WaveFunction, regenerating it for every seed instead of making a new one
+  private final ThreadLocal<WaveFunction> reusable = new ThreadLocal<WaveFunction>();
+
+  /**
+   * A single generated grid
+   */
+  public static class Result
+  {
+    private long seed;
+    private int[] values;
+    private int[][] mapping;
+    private boolean failed;
+
+    Result(long seed, int[] values, int[][] mapping, boolean failed)
+    {
+      this.seed = seed;
+      this.values = values;
+      this.mapping = mapping;
+      this.failed = failed;
+    }
+
+    /**
+     * Returns the seed the grid was generated from
+     * @return the seed
+     */
+    public long getSeed()
+    {
+      return seed;
+    }
+
+    /**
+     * Returns the State index of every cell, row by row, as WaveFunction.getSuperpositionValue would
+     * @return an array of width*height State indices
+     */
+    public int[] getValues()
+    {
+      return values;
+    }
+
+    /**
+     * Returns the mapping of State indices to their original reference value and the number of rotations
+     * @return an integer array of 2-tuples, as WaveFunction.getMapping
+     */
+    public int[][] getMapping()
+    {
+      return mapping;
+    }
+
+    /**
+     * Determines if the WaveFunction gave up on this grid
+     * @return true if the grid could not be collapsed
+     */
+    public boolean isFailed()
+    {
+      return failed;
+    }
+  }
+
+  /**
+   * A WaveFunctionBatch constructor using every available core
+   * @param width the width of the grids to generate
+   * @param height the height of the grids to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   */
+  public WaveFunctionBatch(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights)
+  {
+    this(width, height, edgeData, rotationSymmetry, weights, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * A WaveFunctionBatch constructor
+   * @param width the width of the grids to generate
+   * @param height the height of the grids to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param parallelism the number of grids to generate at the same time
+   */
+  public WaveFunctionBatch(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights, int parallelism)
+  {
+    this.width = width;
+    this.height = height;
+
+    this.edgeData = new int[edgeData.length][];
+    for (int i = 0; i < edgeData.length; i++)
+    {
+      this.edgeData[i] = Arrays.copyOf(edgeData[i], edgeData[i].length);
+    }
+    this.rotationSymmetry = Arrays.copyOf(rotationSymmetry, rotationSymmetry.length);
+    this.weights = Arrays.copyOf(weights, weights.length);
+
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Generates a grid for every seed, waiting until all of them are done
+   * @param seeds the seeds of the grids
+   * @return the generated grids, in the same order as the seeds
+   */
+  public List<Result> generate(long[] seeds)
+  {
+    Result[] results = new Result[seeds.length];
+    pool.invoke(new GenerateTask(seeds, 0, seeds.length, results, null));
+
+    List<Result> list = new ArrayList<Result>(results.length);
+    for (Result result : results)
+    {
+      list.add(result);
+    }
+    return list;
+  }
+
+  /**
+   * Generates a grid for every seed, handing each one to a sink as soon as it is done, and waits until all of them are done.
+   * The sink is called from the worker threads, in no particular order, so it must be safe to call concurrently.
+   * @param seeds the seeds of the grids
+   * @param sink the consumer of the generated grids
+   */
+  public void generate(long[] seeds, Consumer<Result> sink)
+  {
+    pool.invoke(new GenerateTask(seeds, 0, seeds.length, null, sink));
+  }
+
+  /**
+   * Stops the worker threads of the batch. The batch cannot generate grids afterwards
+   */
+  public void shutdown()
+  {
+    pool.shutdown();
+  }
+
+  /**
+   * Generates a single grid on the calling thread
+   * @param seed the seed of the grid
+   * @return the generated grid
+   */
+  public Result generateOne(long seed)
+  {
+    WaveFunction wf = WaveFunction.reuse(reusable.get(), width, height, edgeData, rotationSymmetry, weights, seed);
+    reusable.set(wf);
+    wf.collapse();
+
+    int[] values = new int[width * height];
+    wf.getGridView().get(values);
+    return new Result(seed, values, wf.getMapping(), wf.isFailed());
+  }
+
+  /**
+   * A task generating the grids of a range of seeds, split in halves until a single seed is left
+   */
+  @SuppressWarnings("serial")
+  private class GenerateTask extends RecursiveAction
+  {
+    private long[] seeds;
+    private int start;
+    private int end;
+    private Result[] results;
+    private Consumer<Result> sink;
+
+    GenerateTask(long[] seeds, int start, int end, Result[] results, Consumer<Result> sink)
+    {
+      this.seeds = seeds;
+      this.start = start;
+      this.end = end;
+      this.results = results;
+      this.sink = sink;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (end - start <= 1)
+      {
+        if (start < end)
+        {
+          Result result = generateOne(seeds[start]);
+          if (results != null)
+            results[start] = result;
+          if (sink != null)
+            sink.accept(result);
+        }
+        return;
+      }
+
+      int middle = (start + end) >>> 1;
+      invokeAll(new GenerateTask(seeds, start, middle, results, sink),
+                new GenerateTask(seeds, middle, end, results, sink));
+    }
+  }
+}
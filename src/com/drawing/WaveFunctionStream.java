@@ -0,0 +1,301 @@
+package com.drawing;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The WaveFunctionStream class generates a grid row by row, from top to bottom, handing each row over as soon as it is final,
+ * so only a window of rows is ever held and memory use depends on the width of the grid rather than its area.
+ *
+ * Every window is collapsed by the same WaveFunction, regenerated for each window, with its top row restricted to the States
+ * that fit the last row handed over. The windows are reported to GenerationMetrics together, as one grid.
+ * Only the upper rows of a window are handed over; the lookAhead rows below them are generated again as the top of
+ * the next window, so a row is never final before the rows under it were shown to have a way to continue.
+ *
+ * @author Damian Deugarte
+ * @version 2026-10-18
+ */
+public class WaveFunctionStream
+{
+  private static final int GENERATION_ATTEMPTS = 3;
+
+  private int width;
+  private int height;
+  private int windowRows;
+  private int lookAhead;
+  private WaveFunction template;
+  private Ruleset rules;
+  private SplittableRandom random;
+
+  // the WaveFunction of the windows, made again only for a last window with fewer rows
+  private WaveFunction window;
+  private GenerationMetrics metrics = GenerationMetrics.NONE;
+
+  /**
+   * A receiver of the rows of a grid, in order from the top
+   */
+  public interface RowSink
+  {
+    /**
+     * Takes a final row of the grid
+     * @param row the index of the row
+     * @param values the State index of every cell of the row. The array is reused for the next row, so copy it to keep it
+     * @throws IOException if the row cannot be written
+     */
+    void acceptRow(int row, int[] values) throws IOException;
+  }
+
+  /**
+   * A WaveFunctionStream constructor, holding windows of 16 rows and handing over the top 8 of each
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param seed the seed of the random choices
+   */
+  public WaveFunctionStream(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights, long seed)
+  {
+    this(width, height, edgeData, rotationSymmetry, weights, seed, 16, 8);
+  }
+
+  /**
+   * A WaveFunctionStream constructor
+   * @param width the width of the grid to generate
+   * @param height the height of the grid to generate
+   * @param edgeData a matrix of integer edge data of the tiles to look at
+   * @param rotationSymmetry an array of values representing the rotational symmetry of the edge data
+   * @param weights an array of integers as weights for each tile type
+   * @param seed the seed of the random choices
+   * @param windowRows the number of rows collapsed at a time
+   * @param lookAhead the number of rows at the bottom of each window that are generated again with the next window
+   */
+  public WaveFunctionStream(int width, int height, int[][] edgeData, int[] rotationSymmetry, int[] weights, long seed,
+                            int windowRows, int lookAhead)
+  {
+    this.width = width;
+    this.height = height;
+    this.windowRows = Math.max(1, windowRows);
+    this.lookAhead = Math.max(0, Math.min(lookAhead, this.windowRows - 1));
+    this.random = new SplittableRandom(seed);
+
+    // a 1x1 WaveFunction gives the States and rules every window shares
+    this.template = new WaveFunction(1, 1, edgeData, rotationSymmetry, weights);
+    this.rules = template.getRules();
+  }
+
+  /**
+   * Returns the mapping of State indices to their original reference value and the number of rotations
+   * @return an integer array of 2-tuples, as WaveFunction.getMapping
+   */
+  public int[][] getMapping()
+  {
+    return template.getMapping();
+  }
+
+  /**
+   * Returns what the latest generate cost, every window and every attempt at one added together
+   * @return the metrics of the latest grid, counted as 1 grid
+   */
+  public GenerationMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * Generates the grid, handing each row to a sink as soon as it is final. A window that cannot be collapsed even
+   * without fitting the row above it is handed over as rows of -1, as WaveFunction.getGrid shows cells never collapsed
+   * @param sink the receiver of the rows
+   * @return false if some window could not fit the row above it, leaving a visible seam, or could not be collapsed at all
+   * @throws IOException if the sink could not take a row
+   */
+  public boolean generate(RowSink sink) throws IOException
+  {
+    boolean fitted = true;
+    boolean failed = false;
+    int[] values = new int[width];
+    int[] last = null;
+    metrics = GenerationMetrics.NONE;
+
+    int row = 0;
+    while (row < height)
+    {
+      int rows = Math.min(windowRows, height - row);
+      WaveFunction wf = collapseWindow(rows, last);
+      if (wf == null && last != null)
+      {
+        fitted = false;
+        wf = collapseWindow(rows, null);
+      }
+      if (wf == null)
+      {
+        fitted = false;
+        failed = true;
+      }
+
+      // the last window has nothing below it to look ahead for
+      int finished = row + rows >= height ? rows : rows - lookAhead;
+      IntBuffer window = wf == null ? null : wf.getGridView();
+      for (int r = 0; r < finished; r++)
+      {
+        if (window == null)
+          Arrays.fill(values, -1);
+        else
+          window.get(values);
+        sink.acceptRow(row + r, values);
+      }
+
+      // rows that were never collapsed leave nothing for the next window to fit
+      if (window == null)
+      {
+        last = null;
+      }
+      else
+      {
+        if (last == null)
+          last = new int[width];
+        System.arraycopy(values, 0, last, 0, width);
+      }
+      row += finished;
+    }
+
+    // the windows are one grid, so they count as one generation, failed if any window was
+    metrics = new GenerationMetrics(1, failed ? 1 : 0, metrics.getCellsCollapsed(), metrics.getOptionsRemoved(),
+                                    metrics.getContradictions(), metrics.getBacktracks(), metrics.getRestarts(),
+                                    metrics.getSelectionNanos(), metrics.getPropagationNanos(), metrics.getCopyNanos());
+    GenerationMetrics.addToTotals(failed, metrics.getCellsCollapsed(), metrics.getOptionsRemoved(),
+                                  metrics.getContradictions(), metrics.getBacktracks(), metrics.getRestarts(),
+                                  metrics.getSelectionNanos(), metrics.getPropagationNanos(), metrics.getCopyNanos());
+    return fitted;
+  }
+
+  /**
+   * Generates the grid into a file, in the same format as Map.saveToFile, so Map.loadFromFile can read it
+   * @param filename the name of the file to write
+   * @return false if the file could not be written or the grid has a seam or cells of -1
+   */
+  public boolean generate(String filename)
+  {
+    try
+    {
+      final BufferedWriter saveFile = new BufferedWriter(new FileWriter(filename));
+      try
+      {
+        int[][] mapping = getMapping();
+        saveFile.write(mapping.length + "," + height + "," + width + "\n");
+        for (int i = 0; i < mapping.length; i++)
+        {
+          saveFile.write(mapping[i][0] + "," + mapping[i][1] + "\n");
+        }
+
+        return generate(new RowSink()
+        {
+          public void acceptRow(int row, int[] values) throws IOException
+          {
+            for (int c = 0; c < values.length; c++)
+            {
+              if (c > 0)
+                saveFile.write(",");
+              saveFile.write(Integer.toString(values[c]));
+            }
+            saveFile.write("\n");
+          }
+        });
+      }
+      finally
+      {
+        saveFile.close();
+      }
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Generates the grid into a channel, each row written as width big-endian 4-byte State indices
+   * @param channel the channel to write to, left open
+   * @return false if the channel could not be written or the grid has a seam or cells of -1
+   */
+  public boolean generate(final WritableByteChannel channel)
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(4 * width);
+    try
+    {
+      return generate(new RowSink()
+      {
+        public void acceptRow(int row, int[] values) throws IOException
+        {
+          buffer.clear();
+          for (int value : values)
+          {
+            buffer.putInt(value);
+          }
+          buffer.flip();
+          while (buffer.hasRemaining())
+          {
+            channel.write(buffer);
+          }
+        }
+      });
+    }
+    catch (IOException e)
+    {
+      System.out.println("An error occurred.");
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Collapses a window of rows, its top row restricted to fit the row above it
+   * @param rows the number of rows of the window
+   * @param above the row above the window, or null for none
+   * @return the collapsed window, the stream's WaveFunction, or null if it could not be collapsed
+   */
+  private WaveFunction collapseWindow(int rows, int[] above)
+  {
+    for (int attempt = 0; attempt < GENERATION_ATTEMPTS; attempt++)
+    {
+      long seed = random.nextLong();
+      if (window == null || window.height != rows)
+      {
+        window = new WaveFunction(template, width, rows, seed);
+        window.reportsMetrics = false;
+      }
+      else
+      {
+        window.clearRestrictions();
+        window.regenerate(seed);
+      }
+      WaveFunction wf = window;
+      boolean fits = true;
+      for (int c = 0; above != null && c < width && fits; c++)
+      {
+        fits = wf.restrict(c, rules.getNeighbors(Ruleset.DOWN, above[c]));
+      }
+      // every attempt restricts the same cells the same way, so none of them could fit
+      if (!fits)
+      {
+        metrics = metrics.plus(wf.getMetrics());
+        return null;
+      }
+
+      wf.collapse();
+      metrics = metrics.plus(wf.getMetrics());
+      if (!wf.isFailed())
+      {
+        return wf;
+      }
+    }
+    return null;
+  }
+}